@@ -2,6 +2,15 @@ package bndtools.bndplugins.repo;
 
 import java.io.File;
 
+/**
+ * A repository that can provide source bundles for its binary bundles. Source
+ * bundles are looked up when a classpath is calculated and are attached to
+ * the classpath entries of the binary bundles.
+ */
 public interface SourceRepositoryPlugin {
+    /**
+     * Returns the source bundle of the specified binary bundle of this
+     * repository, or null if no source is available.
+     */
     File getSourceBundle(File binaryBundle, String bsn);
 }
@@ -1,11 +1,11 @@
 package bndtools.bndplugins.repo.eclipse;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -17,8 +17,9 @@ import aQute.lib.osgi.Jar;
 import aQute.libg.reporter.Reporter;
 import aQute.libg.version.Version;
 import aQute.libg.version.VersionRange;
+import bndtools.bndplugins.repo.SourceRepositoryPlugin;
 
-public class EclipseRepo implements Plugin, RepositoryPlugin {
+public class EclipseRepo implements Plugin, RepositoryPlugin, SourceRepositoryPlugin {
 
     private static final String DEFAULT_VERSION = "0";
     private File root;
@@ -178,43 +179,26 @@ public class EclipseRepo implements Plugin, RepositoryPlugin {
         return versions;
     }
 
-    private File getSourceAugmentedFile(File pluginFile, String bsn, String version) {
-        // Don't merge source for a directory-based plugin.
-        if(pluginFile.isDirectory()) return null;
-
-        // Get the source plugin
-        File pluginsDir = new File(root, "plugins");
-        File sourceFile = new File(pluginsDir, bsn + ".source_" + version + ".jar");
-        if(!sourceFile.exists()) return null;
-
-        // Get the cached augmented plugin file, if it exists
-        File cacheDir = new File(root, ".augmented");
-        cacheDir.mkdirs();
-        File augmentedFile = new File(cacheDir, pluginFile.getName());
-
-        // Check if the augmented plugin needs to be (re)built
-        long originalTimestamp = Math.max(pluginFile.lastModified(), sourceFile.lastModified());
-        long augmentedTimestamp = (augmentedFile.isFile()) ? augmentedFile.lastModified() : 0;
-        try {
-            if(originalTimestamp > augmentedTimestamp) {
-                mergeSource(pluginFile, sourceFile, augmentedFile);
+    /**
+     * Returns the source plugin that Eclipse ships next to the binary plugin,
+     * named {@code <bsn>.source_<version>.jar}.
+     */
+    public File getSourceBundle(File binaryBundle, String bsn) {
+        String version = null;
+        Map<String, File> instances = index.get(bsn);
+        if (instances != null) {
+            for (Entry<String, File> entry : instances.entrySet()) {
+                if (entry.getValue().equals(binaryBundle)) {
+                    version = entry.getKey();
+                    break;
+                }
             }
-            return augmentedFile;
-        } catch (Exception e) {
-            if(reporter != null)
-                reporter.error("Error merging plugin and source JARs");
-            return null;
         }
-    }
-
-    private void mergeSource(File pluginFile, File sourceFile, File augmentedFile) throws Exception {
-            Jar mainJar = new Jar(pluginFile);
-            mainJar.setDoNotTouchManifest();
-            Jar sourceJar = new Jar(sourceFile);
+        if (version == null)
+            return null;
 
-            mainJar.addAll(sourceJar, new Instruction(".*\\.java", false), "OSGI-OPT/src");
-            FileOutputStream out = new FileOutputStream(augmentedFile);
-            mainJar.write(out);
+        File sourceFile = new File(new File(root, "plugins"), bsn + ".source_" + version + ".jar");
+        return sourceFile.isFile() ? sourceFile : null;
     }
 
     public File get(String bsn, String range, Strategy strategy, Map<String, String> properties) throws Exception {
@@ -246,11 +230,7 @@ public class EclipseRepo implements Plugin, RepositoryPlugin {
             Version v = new Version(version);
             if (r.includes(v)) {
                 File pluginFile = instances.get(version);
-                File augmentedFile = getSourceAugmentedFile(pluginFile, bsn, version);
-
-                if(augmentedFile != null && augmentedFile.isFile()) {
-                    result.add(augmentedFile);
-                } else if (pluginFile.isFile() || pluginFile.isDirectory()) {
+                if (pluginFile.isFile() || pluginFile.isDirectory()) {
                     result.add(pluginFile);
                 }
             }
@@ -0,0 +1,16 @@
+package bndtools;
+
+import java.util.Collection;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.plugin.ModelListener;
+
+/**
+ * A model listener that can handle a batch of changed models at once. When
+ * several models change together, for example because {@code cnf} was
+ * modified, {@link Central} calls {@link #modelsChanged(Collection)} once
+ * instead of calling {@link #modelChanged(Project)} for every model.
+ */
+public interface BatchModelListener extends ModelListener {
+    void modelsChanged(Collection<Project> models) throws Exception;
+}
@@ -1,17 +1,28 @@
 package bndtools;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.core.internal.resources.ResourceException;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IWorkspaceRoot;
@@ -21,7 +32,6 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.Path;
-import org.eclipse.core.runtime.Status;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
 
@@ -30,136 +40,301 @@ import aQute.bnd.build.Workspace;
 import aQute.bnd.plugin.Activator;
 import aQute.bnd.plugin.ModelListener;
 import aQute.bnd.service.Refreshable;
+import bndtools.classpath.SourceAttachments;
 
 public class Central {
-    static Workspace workspace = null;
+    static volatile Workspace workspace = null;
 
-    final Map<IJavaProject, Project> javaProjectToModel = new HashMap<IJavaProject, Project>();
-    final List<ModelListener>        listeners          = new CopyOnWriteArrayList<ModelListener>();
+    /** Workspace paths of classpath files known to exist as workspace resources. */
+    private static final ConcurrentMap<IPath, Boolean> knownMembers = new ConcurrentHashMap<IPath, Boolean>();
 
-    Central() { }
+    /**
+     * The models of the Java projects, each held by the task that loads it.
+     * Lookups of loaded models do not take any lock; a model that is not yet
+     * loaded is loaded once, by the first thread that asks for it, while
+     * other threads asking for the same project wait for the result.
+     */
+    final ConcurrentMap<IJavaProject, Future<Project>> javaProjectToModel = new ConcurrentHashMap<IJavaProject, Future<Project>>();
+    final List<ModelListener>        listeners          = new CopyOnWriteArrayList<ModelListener>();
 
-    public Project getModel(IJavaProject project) {
-        try {
-            Project model = javaProjectToModel.get(project);
-             if (model == null) {
-                File projectDir = project.getProject().getLocation()
-                        .makeAbsolute().toFile();
-                try {
-                    model = Workspace.getProject(projectDir);
-                } catch (IllegalArgumentException e) {
-//                    initialiseWorkspace();
-//                    model = Workspace.getProject(projectDir);
-                    return null;
-                }
-                if (workspace == null) {
-                    model.getWorkspace();
+    /**
+     * The open Java projects, indexed by name, which is also the name of
+     * their bnd models. Together with {@link #javaProjectToModel} this maps
+     * in both directions between bnd models and Java projects.
+     */
+    final ConcurrentMap<String, IJavaProject> javaProjectsByName = new ConcurrentHashMap<String, IJavaProject>();
+
+    private final IResourceChangeListener projectLifecycleListener = new IResourceChangeListener() {
+        public void resourceChanged(IResourceChangeEvent event) {
+            if (event.getType() == IResourceChangeEvent.POST_CHANGE) {
+                forgetRemovedMembers(event.getDelta());
+                for (IResourceDelta delta : event.getDelta().getAffectedChildren(IResourceDelta.ADDED | IResourceDelta.REMOVED | IResourceDelta.CHANGED)) {
+                    if (delta.getResource().getType() != IResource.PROJECT)
+                        continue;
+                    IProject project = (IProject) delta.getResource();
+                    if (delta.getKind() == IResourceDelta.REMOVED) {
+                        // Removed, or renamed to another name
+                        evictModel(project);
+                    } else if (delta.getKind() == IResourceDelta.ADDED || (delta.getFlags() & IResourceDelta.OPEN) != 0) {
+                        // Created, renamed from another name, or opened
+                        indexJavaProject(project);
+                    }
                 }
-                if (model != null) {
-                    javaProjectToModel.put(project, model);
+            } else if (event.getResource() instanceof IProject) {
+                forgetMembers(event.getResource().getFullPath());
+                evictModel((IProject) event.getResource());
+            }
+        }
+    };
+
+    private final ModelRefreshJob refreshJob = new ModelRefreshJob(this);
+    private final RepositoryIndexUpdateJob indexUpdateJob = new RepositoryIndexUpdateJob();
+
+    /**
+     * The order in which models were last used, for evicting the least
+     * recently used models when the user has configured a maximum.
+     */
+    private final ConcurrentMap<IJavaProject, Long> lastUsed = new ConcurrentHashMap<IJavaProject, Long>();
+    private final AtomicLong useCounter = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+
+    Central() {
+        ResourcesPlugin.getWorkspace().addResourceChangeListener(projectLifecycleListener, IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE | IResourceChangeEvent.POST_CHANGE);
+        ResourcesPlugin.getWorkspace().addResourceChangeListener(indexUpdateJob, IResourceChangeEvent.POST_CHANGE);
+    }
+
+    public Project getModel(final IJavaProject project) {
+        Future<Project> future = javaProjectToModel.get(project);
+        if (future == null) {
+            FutureTask<Project> task = new FutureTask<Project>(new Callable<Project>() {
+                public Project call() throws Exception {
+                    return loadModel(project);
                 }
+            });
+            future = javaProjectToModel.putIfAbsent(project, task);
+            if (future == null) {
+                future = task;
+                task.run();
+                lastUsed.put(project, useCounter.incrementAndGet());
+                evictExcessModels(project);
+            }
+        }
+
+        try {
+            Project model = future.get();
+            // Not a bnd project (yet), so check again next time
+            if (model == null) {
+                javaProjectToModel.remove(project, future);
+                lastUsed.remove(project);
+            } else {
+                lastUsed.put(project, useCounter.incrementAndGet());
             }
             return model;
-        } catch (Exception e) {
+        } catch (ExecutionException e) {
+            javaProjectToModel.remove(project, future);
             // TODO do something more useful here
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
         }
     }
 
+    private static Project loadModel(IJavaProject project) throws Exception {
+        IPath location = project.getProject().getLocation();
+        if (location == null)
+            return null;
+        File projectDir = location.makeAbsolute().toFile();
+        Project model;
+        try {
+            model = Workspace.getProject(projectDir);
+        } catch (IllegalArgumentException e) {
+//            initialiseWorkspace();
+//            model = Workspace.getProject(projectDir);
+            return null;
+        }
+        if (workspace == null && model != null) {
+            model.getWorkspace();
+        }
+        return model;
+    }
+
+    /**
+     * Forget the model of a project that has been closed, deleted or renamed.
+     */
+    void evictModel(IProject project) {
+        javaProjectsByName.remove(project.getName());
+        evictModel(JavaCore.create(project));
+    }
+
+    private void evictModel(IJavaProject project) {
+        lastUsed.remove(project);
+        Future<Project> future = javaProjectToModel.remove(project);
+        if (future != null && future.isDone()) {
+            try {
+                Project model = future.get();
+                if (model != null)
+                    WorkspaceModels.release(model);
+            } catch (Exception e) {
+                // Failed to load, so nothing to release
+            }
+        }
+    }
+
+    /**
+     * Evict the least recently used models while there are more than the
+     * configured maximum, never evicting the specified project. There is no
+     * maximum unless the user sets one: an evicted model of an open project
+     * is loaded again when it is next used, and objects still holding the
+     * evicted model then see a different model than the rest of the IDE.
+     */
+    private void evictExcessModels(IJavaProject keep) {
+        int max = Plugin.getDefault().getPreferenceStore().getInt(Plugin.PREF_MAX_PROJECT_MODELS);
+        if (max <= 0)
+            return;
+        while (javaProjectToModel.size() > max) {
+            IJavaProject oldest = null;
+            long oldestUse = Long.MAX_VALUE;
+            for (Entry<IJavaProject, Long> entry : lastUsed.entrySet()) {
+                if (!entry.getKey().equals(keep) && entry.getValue() < oldestUse) {
+                    oldest = entry.getKey();
+                    oldestUse = entry.getValue();
+                }
+            }
+            if (oldest == null)
+                break;
+            evictModel(oldest);
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of project models currently held by Central.
+     */
+    public int getModelCount() {
+        return javaProjectToModel.size();
+    }
+
+    /**
+     * Returns the number of models evicted because there were more than the
+     * configured maximum.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns a rough estimate of the heap retained by the models currently
+     * held by Central.
+     */
+    public long estimateRetainedSize() {
+        long size = 0;
+        for (Future<Project> future : javaProjectToModel.values()) {
+            if (!future.isDone())
+                continue;
+            try {
+                Project model = future.get();
+                if (model != null)
+                    size += WorkspaceModels.estimateSize(model);
+            } catch (Exception e) {
+                // Failed to load
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of project models retained by the bnd workspace,
+     * including models that bnd loaded for dependencies, or -1 if unknown.
+     */
+    public static int getWorkspaceModelCount() {
+        return WorkspaceModels.getRetainedCount(workspace);
+    }
+
+    private IJavaProject indexJavaProject(IProject project) {
+        if (!project.isOpen())
+            return null;
+        IJavaProject javaProject = JavaCore.create(project);
+        if (javaProject == null || !javaProject.exists()) {
+            // Not a Java project
+            return null;
+        }
+        javaProjectsByName.put(project.getName(), javaProject);
+        return javaProject;
+    }
+
     /**
      * Implementation of the resource changed interface. We are checking in the
-     * POST_CHANGE phase if one of our tracked models needs to be updated.
+     * POST_CHANGE phase if one of our tracked models needs to be updated. The
+     * models are refreshed asynchronously by the model refresh job, so that
+     * the notification thread only collects the names of changed projects.
      */
-    public synchronized void resourceChanged(IResourceChangeEvent event) {
+    public void resourceChanged(IResourceChangeEvent event) {
         if (event.getType() != IResourceChangeEvent.POST_CHANGE)
             return;
 
+        final File base;
+        try {
+            Workspace ws = getWorkspace();
+            if (ws == null)
+                return;
+            base = ws.getBase();
+        } catch (Exception e) {
+            Activator.getDefault().error("While handling changes", e);
+            return;
+        }
+
         IResourceDelta rootDelta = event.getDelta();
         try {
-            final Set<Project> changed = new HashSet<Project>();
+            final Set<String> changed = new LinkedHashSet<String>();
+            final boolean[] cnfChanged = new boolean[1];
             rootDelta.accept(new IResourceDeltaVisitor() {
                 public boolean visit(IResourceDelta delta) throws CoreException {
-                    try {
-
-                        IPath location = delta.getResource().getLocation();
-                        if (location == null) {
-                            System.out
-                                    .println("Cannot convert resource to file: "
-                                            + delta.getResource());
-                        } else {
-                            File file = location.toFile();
-                            File parent = file.getParentFile();
-                            boolean parentIsWorkspace = parent
-                                    .equals(getWorkspace().getBase());
-
-                            // file
-                            // /development/osgi/svn/build/org.osgi.test.cases.distribution/bnd.bnd
-                            // parent
-                            // /development/osgi/svn/build/org.osgi.test.cases.distribution
-                            // workspace /development/amf/workspaces/osgi
-                            // false
-
-                            if (parent != null && parentIsWorkspace) {
-                                // We now are on project level, we do not go
-                                // deeper
-                                // because projects/workspaces should check for
-                                // any
-                                // changes.
-                                // We are careful not to create unnecessary
-                                // projects
-                                // here.
-                                if (file.getName().equals(Workspace.CNFDIR)) {
-                                    if (workspace.refresh()) {
-                                        changed.addAll(workspace
-                                                .getCurrentProjects());
-                                    }
-                                    return false;
-                                }
-                                if (workspace.isPresent(file.getName())) {
-                                    Project project = workspace.getProject(file
-                                            .getName());
-                                    changed.add(project);
-                                } else {
-                                    ; // Project not created yet, so we
-                                    // have
-                                    // no cached results
-
-                                }
-                                return false;
-                            }
-                        }
+                    IPath location = delta.getResource().getLocation();
+                    if (location == null) {
+                        System.out.println("Cannot convert resource to file: " + delta.getResource());
                         return true;
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        throw new CoreException(new Status(Status.ERROR,
-                                Activator.PLUGIN_ID,
-                                "During checking project changes", e));
                     }
+                    File file = location.toFile();
+                    File parent = file.getParentFile();
+                    if (parent != null && parent.equals(base)) {
+                        // We now are on project level, we do not go deeper
+                        // because projects/workspaces should check for any
+                        // changes.
+                        if (file.getName().equals(Workspace.CNFDIR))
+                            cnfChanged[0] = true;
+                        else
+                            changed.add(file.getName());
+                        return false;
+                    }
+                    return true;
                 }
-
             });
-
-            for (Project p : changed) {
-                p.refresh();
-                changed(p);
-
-            }
+            refreshJob.enqueue(changed, cnfChanged[0]);
         } catch (CoreException e) {
             Activator.getDefault().error("While handling changes", e);
-            // TODO Auto-generated catch block
-            e.printStackTrace();
         }
     }
 
     public static Workspace getWorkspace() throws Exception {
-        if (workspace != null)
+        Workspace result = workspace;
+        if (result != null)
+            return result;
+
+        synchronized (Central.class) {
+            if (workspace == null)
+                workspace = createWorkspace();
             return workspace;
+        }
+    }
 
+    private static Workspace createWorkspace() throws Exception {
         IWorkspaceRoot wsroot = ResourcesPlugin.getWorkspace().getRoot();
         File wsdir = wsroot.getLocation().toFile();
 
+        Workspace ws;
         try {
-            workspace = Workspace.getWorkspace(wsdir);
+            ws = Workspace.getWorkspace(wsdir);
         } catch (IllegalArgumentException e) {
             return null;
 
@@ -168,11 +343,11 @@ public class Central {
             // // Retry
             // workspace = Workspace.getWorkspace(wsdir);
         }
-        workspace.addBasicPlugin(new FilesystemUpdateListener());
+        ws.addBasicPlugin(new FilesystemUpdateListener());
 
-        Activator.getDefault().getBundleContext().registerService(Workspace.class.getName(), workspace, null);
+        Activator.getDefault().getBundleContext().registerService(Workspace.class.getName(), ws, null);
 
-        return workspace;
+        return ws;
     }
 
     private static void initialiseWorkspace() throws CoreException {
@@ -185,13 +360,35 @@ public class Central {
     }
 
     public void changed(Project model) {
-        model.setChanged();
-        for (ModelListener m : listeners)
-            try {
-                m.modelChanged(model);
-            } catch (Exception e) {
-                e.printStackTrace();
+        changed(Collections.singletonList(model));
+    }
+
+    /**
+     * Notify the model listeners of a batch of changed models. Listeners that
+     * implement {@link BatchModelListener} receive the whole batch in one
+     * call.
+     */
+    public void changed(Collection<Project> models) {
+        if (models.isEmpty())
+            return;
+        for (Project model : models)
+            model.setChanged();
+        for (ModelListener m : listeners) {
+            if (m instanceof BatchModelListener) {
+                try {
+                    ((BatchModelListener) m).modelsChanged(models);
+                } catch (Exception e) {
+                    Plugin.logError("Error notifying model listener of changed bnd projects", e);
+                }
+            } else {
+                for (Project model : models)
+                    try {
+                        m.modelChanged(model);
+                    } catch (Exception e) {
+                        Plugin.logError("Error notifying model listener of changed bnd project " + model, e);
+                    }
             }
+        }
     }
 
     public void addModelListener(ModelListener m) {
@@ -205,16 +402,10 @@ public class Central {
     }
 
     public IJavaProject getJavaProject(Project model) {
-        for (IProject iproj : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
-            if (iproj.getName().equals(model.getName())) {
-                IJavaProject ij = JavaCore.create(iproj);
-                if (ij != null && ij.exists()) {
-                    return ij;
-                }
-                // current project is not a Java project
-            }
-        }
-        return null;
+        IJavaProject javaProject = javaProjectsByName.get(model.getName());
+        if (javaProject != null)
+            return javaProject;
+        return indexJavaProject(ResourcesPlugin.getWorkspace().getRoot().getProject(model.getName()));
     }
 
     public static IPath toPath(Project project, File file) {
@@ -230,35 +421,130 @@ public class Central {
     }
 
     public static void refresh(IPath path) {
+        refresh(Collections.singleton(path));
+    }
+
+    /**
+     * Returns whether the workspace path exists as a workspace resource.
+     * Paths found to exist are remembered until they are removed from the
+     * workspace or bnd reports a change in their folder, so that repeated
+     * classpath calculations do not need to look up the same resources again.
+     */
+    public static boolean isKnownMember(IPath path) {
+        if (knownMembers.containsKey(path))
+            return true;
+        if (ResourcesPlugin.getWorkspace().getRoot().findMember(path) != null) {
+            knownMembers.put(path, Boolean.TRUE);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forget the known workspace resources at or below the specified file,
+     * e.g. because bnd has changed the contents of a repository.
+     */
+    public static void forgetMembers(File file) {
+        Workspace ws = workspace;
+        if (ws == null) {
+            knownMembers.clear();
+            return;
+        }
+        IPath path = new Path(file.getAbsolutePath());
+        IPath base = new Path(ws.getBase().getAbsolutePath());
+        if (!base.isPrefixOf(path))
+            return;
+        forgetMembers(path.removeFirstSegments(base.segmentCount()).makeAbsolute().setDevice(null));
+    }
+
+    private static void forgetMembers(IPath prefix) {
+        for (IPath member : knownMembers.keySet()) {
+            if (prefix.isPrefixOf(member))
+                knownMembers.remove(member);
+        }
+    }
+
+    /**
+     * Forget the known workspace resources that were removed, or moved away,
+     * in the resource change.
+     */
+    private static void forgetRemovedMembers(IResourceDelta rootDelta) {
+        if (rootDelta == null || knownMembers.isEmpty())
+            return;
         try {
-            IResource r = ResourcesPlugin.getWorkspace().getRoot().findMember(
-                    path);
-            if (r != null)
-                return;
+            rootDelta.accept(new IResourceDeltaVisitor() {
+                public boolean visit(IResourceDelta delta) throws CoreException {
+                    if (delta.getKind() != IResourceDelta.REMOVED)
+                        return true;
+                    forgetMembers(delta.getResource().getFullPath());
+                    return false;
+                }
+            });
+        } catch (CoreException e) {
+            // Cannot tell what was removed
+            knownMembers.clear();
+        }
+    }
+
+    /**
+     * Refresh the workspace so that it contains the specified paths, which
+     * are files that may have been created outside of the workspace. Paths
+     * that are already present are skipped; for each missing path the
+     * nearest existing folder is refreshed, and each folder is refreshed at
+     * most once.
+     */
+    public static void refresh(Collection<IPath> paths) {
+        IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+        List<IResource> folders = new ArrayList<IResource>();
+        for (IPath path : paths) {
+            if (isKnownMember(path))
+                continue;
 
             IPath p = (IPath) path.clone();
             while (p.segmentCount() > 0) {
                 p = p.removeLastSegments(1);
-                IResource resource = ResourcesPlugin.getWorkspace().getRoot()
-                        .findMember(p);
+                IResource resource = root.findMember(p);
                 if (resource != null) {
-                    resource.refreshLocal(2, null);
-                    return;
+                    addFolder(folders, resource);
+                    break;
                 }
             }
-        } catch( ResourceException re ) {
-            // TODO Ignore for now
         }
-        catch (Exception e) {
-            Activator.getDefault().error("While refreshing path " + path, e);
+
+        for (IResource folder : folders) {
+            try {
+                folder.refreshLocal(IResource.DEPTH_INFINITE, null);
+            } catch (ResourceException re) {
+                // TODO Ignore for now
+            } catch (Exception e) {
+                Activator.getDefault().error("While refreshing path " + folder.getFullPath(), e);
+            }
         }
     }
 
+    /**
+     * Add the folder to the list unless it is already covered by one of the
+     * folders in the list, removing the folders that it covers.
+     */
+    private static void addFolder(List<IResource> folders, IResource folder) {
+        IPath path = folder.getFullPath();
+        for (Iterator<IResource> iter = folders.iterator(); iter.hasNext();) {
+            IPath existing = iter.next().getFullPath();
+            if (existing.isPrefixOf(path))
+                return;
+            if (path.isPrefixOf(existing))
+                iter.remove();
+        }
+        folders.add(folder);
+    }
+
     public void refreshPlugins() throws Exception {
         List<Refreshable> rps = getWorkspace().getPlugins(Refreshable.class);
         for (Refreshable rp : rps) {
             if (rp.refresh()) {
                 File dir = rp.getRoot();
+                forgetMembers(dir);
+                SourceAttachments.clear();
                 refreshFile(dir);
             }
         }
@@ -284,6 +570,23 @@ public class Central {
         return path;
     }
 
+    /**
+     * Notify that bundle files have been added to, replaced in or removed
+     * from a repository outside the workspace API, so that the repository
+     * index is updated.
+     */
+    public void repositoryFilesChanged(Collection<File> files) {
+        indexUpdateJob.enqueue(files);
+    }
+
     public void close() {
+        refreshJob.cancel();
+        indexUpdateJob.cancel();
+        ResourcesPlugin.getWorkspace().removeResourceChangeListener(projectLifecycleListener);
+        ResourcesPlugin.getWorkspace().removeResourceChangeListener(indexUpdateJob);
+        javaProjectToModel.clear();
+        lastUsed.clear();
+        javaProjectsByName.clear();
+        knownMembers.clear();
     }
 }
@@ -1,6 +1,7 @@
 package bndtools;
 
 import java.io.File;
+import java.util.Collections;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFolder;
@@ -29,6 +30,10 @@ public final class FilesystemUpdateListener extends BndListener {
 		}
 		@Override
         public void changed(final File file) {
+		    Central.forgetMembers(file);
+		    Central central = Plugin.getDefault().getCentral();
+		    if (central != null)
+		        central.repositoryFilesChanged(Collections.singleton(file));
 		    RefreshFileJob job = new RefreshFileJob(file);
 			if(job.isFileInWorkspace()) {
 			    job.schedule();
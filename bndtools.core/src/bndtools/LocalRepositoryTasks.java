@@ -59,6 +59,7 @@ import bndtools.utils.ProgressReportingInputStream;
 
 public class LocalRepositoryTasks {
     private static final String PATH_REPO_FOLDER = "repo";
+    static final String REPOSITORY_INDEX = "repository.xml";
     private static final String PREF_INSTALLED_REPOS = "installedRepos";
     private static final String PREF_PREFIX_INSTALLED_REPO = "installedRepoVersion-";
 
@@ -232,6 +233,7 @@ public class LocalRepositoryTasks {
             Jar jar = new Jar("", stream, System.currentTimeMillis());
             jar.setDoNotTouchManifest();
             File newFile = localRepo.put(jar);
+            Plugin.getDefault().getCentral().repositoryFilesChanged(Collections.singleton(newFile));
 
             RefreshFileJob refreshJob = new RefreshFileJob(newFile);
             if(refreshJob.isFileInWorkspace())
@@ -407,7 +409,7 @@ public class LocalRepositoryTasks {
 
     public static void indexRepositories(IProgressMonitor monitor) throws Exception {
         IProject cnf = getCnfProject();
-        IFile repoFile = cnf.getFile("repository.xml");
+        IFile repoFile = cnf.getFile(REPOSITORY_INDEX);
 
         LocalRepositoryIndexer indexer = new LocalRepositoryIndexer();
         indexer.setOutputFile(new File(repoFile.getLocationURI()));
@@ -417,5 +419,26 @@ public class LocalRepositoryTasks {
         repoFile.refreshLocal(IResource.DEPTH_ZERO, progress.newChild(1, SubMonitor.SUPPRESS_NONE));
     }
 
+    /**
+     * Update the repository index for changes to the specified bundle files
+     * only, without listing the repositories again.
+     *
+     * @return {@code false} if the index could not be updated incrementally
+     *         and must be regenerated with {@link #indexRepositories}.
+     */
+    public static boolean updateRepositoryIndex(Collection<File> files, IProgressMonitor monitor) throws Exception {
+        IProject cnf = getCnfProject();
+        IFile repoFile = cnf.getFile(REPOSITORY_INDEX);
+
+        LocalRepositoryIndexer indexer = new LocalRepositoryIndexer();
+        indexer.setOutputFile(new File(repoFile.getLocationURI()));
+
+        SubMonitor progress = SubMonitor.convert(monitor, 3);
+        if (!indexer.update(files, progress.newChild(2, SubMonitor.SUPPRESS_NONE)))
+            return false;
+        repoFile.refreshLocal(IResource.DEPTH_ZERO, progress.newChild(1, SubMonitor.SUPPRESS_NONE));
+        return true;
+    }
+
 }
 
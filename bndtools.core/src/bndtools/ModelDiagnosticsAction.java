@@ -0,0 +1,36 @@
+package bndtools;
+
+import java.text.MessageFormat;
+
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.IWorkbenchWindowActionDelegate;
+
+/**
+ * Reports how many bnd project models are retained, and roughly how much
+ * memory they use.
+ */
+public class ModelDiagnosticsAction implements IWorkbenchWindowActionDelegate {
+
+    private IWorkbenchWindow window;
+
+    public void run(IAction action) {
+        Central central = Plugin.getDefault().getCentral();
+        int workspaceCount = Central.getWorkspaceModelCount();
+        String message = MessageFormat.format("Project models held by Bndtools: {0}\nEstimated retained size: {1} KB\nModels evicted to stay under the limit: {2}\nProject models retained by the bnd workspace: {3}",
+                central.getModelCount(), central.estimateRetainedSize() / 1024, central.getEvictionCount(), workspaceCount >= 0 ? Integer.toString(workspaceCount) : "unknown");
+        MessageDialog.openInformation(window.getShell(), "Bnd Model Diagnostics", message);
+    }
+
+    public void selectionChanged(IAction action, ISelection selection) {
+    }
+
+    public void dispose() {
+    }
+
+    public void init(IWorkbenchWindow window) {
+        this.window = window;
+    }
+}
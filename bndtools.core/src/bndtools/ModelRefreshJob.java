@@ -0,0 +1,111 @@
+package bndtools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
+
+/**
+ * Refreshes the bnd models of changed projects in the background. Changes
+ * reported by resource change events are queued and coalesced: however many
+ * events arrive in a burst, each project model is refreshed once and the
+ * model listeners are notified once with the whole batch.
+ * <p>
+ * Project models are not thread-safe, so the job holds the workspace root as
+ * its scheduling rule. It therefore never runs while a build is using the
+ * models it refreshes, just as when the models were refreshed in the resource
+ * change notification under the workspace lock.
+ */
+class ModelRefreshJob extends Job {
+
+    /** Delay before draining the queue, so that a burst of events is handled together. */
+    private static final long DELAY = 200;
+
+    private final Central central;
+
+    private final Set<String> pendingProjects = new LinkedHashSet<String>();
+    private boolean pendingWorkspace = false;
+
+    ModelRefreshJob(Central central) {
+        super("Refreshing bnd project models");
+        this.central = central;
+        setSystem(true);
+        setRule(ResourcesPlugin.getWorkspace().getRoot());
+    }
+
+    /**
+     * Queue the named projects, and optionally the bnd workspace
+     * configuration, for refreshing.
+     */
+    void enqueue(Collection<String> projectNames, boolean workspaceChanged) {
+        if (projectNames.isEmpty() && !workspaceChanged)
+            return;
+        synchronized (this) {
+            pendingProjects.addAll(projectNames);
+            pendingWorkspace |= workspaceChanged;
+        }
+        schedule(DELAY);
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        List<String> projectNames;
+        boolean workspaceChanged;
+        synchronized (this) {
+            projectNames = new ArrayList<String>(pendingProjects);
+            workspaceChanged = pendingWorkspace;
+            pendingProjects.clear();
+            pendingWorkspace = false;
+        }
+
+        SubMonitor progress = SubMonitor.convert(monitor, projectNames.size() + 2);
+        try {
+            Workspace workspace = Central.getWorkspace();
+            if (workspace == null)
+                return Status.OK_STATUS;
+
+            Set<Project> changed = new LinkedHashSet<Project>();
+            boolean refreshed = workspaceChanged && workspace.refresh();
+
+            // Do not create models for projects that have not been used yet
+            Map<String, Project> models = new HashMap<String, Project>();
+            for (Project model : WorkspaceModels.getRetainedModels(workspace)) {
+                models.put(model.getName(), model);
+            }
+            if (refreshed)
+                changed.addAll(models.values());
+            progress.worked(1);
+
+            for (String name : projectNames) {
+                if (progress.isCanceled())
+                    break;
+                Project model = models.get(name);
+                if (model != null)
+                    changed.add(model);
+                progress.worked(1);
+            }
+
+            for (Project project : changed) {
+                project.refresh();
+            }
+            central.changed(changed);
+            progress.worked(1);
+        } catch (Exception e) {
+            return new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, "Error refreshing bnd project models.", e);
+        }
+        return Status.OK_STATUS;
+    }
+}
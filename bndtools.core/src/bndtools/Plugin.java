@@ -15,6 +15,7 @@ import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
 import org.eclipse.core.runtime.IStatus;
@@ -34,6 +35,9 @@ import org.osgi.util.tracker.ServiceTracker;
 import aQute.bnd.plugin.Activator;
 import aQute.lib.osgi.Processor;
 import aQute.libg.version.Version;
+import bndtools.builder.BuildMetrics;
+import bndtools.builder.BuildStateStore;
+import bndtools.classpath.ClasspathSnapshotStore;
 import bndtools.services.WorkspaceURLStreamHandlerService;
 
 public class Plugin extends AbstractUIPlugin {
@@ -52,9 +56,21 @@ public class Plugin extends AbstractUIPlugin {
 
 	public static final String PREF_HIDE_WARNING_EXTERNAL_FILE = "hideExternalFileWarning";
 
+	public static final String PREF_BUILD_AFFECTED_SUB_BUNDLES_ONLY = "buildAffectedSubBundlesOnly";
+	public static final String PREF_PARALLEL_SUB_BUNDLE_BUILD = "parallelSubBundleBuild";
+	public static final String PREF_REWRITE_UNCHANGED_BUNDLES = "rewriteUnchangedBundles";
+	public static final String PREF_BUILD_THREADS = "buildThreads";
+	public static final String PREF_BUILD_CACHE = "buildCache";
+	public static final String PREF_BUILD_CACHE_SIZE = "buildCacheSize";
+	public static final String PREF_BUILD_CACHE_DIR = "buildCacheDir";
+	public static final String PREF_MAX_PROJECT_MODELS = "maxProjectModels";
+
     private static final String BASE_REPOSITORY_INSTALLED_VERSION = "baseRepoInstalledVersion";
     private static final String BASE_REPOSITORY_BSN = "bndtools.repository.base";
 
+    private static final String BUILD_STATE_DIR = "buildstate";
+    private static final String CLASSPATH_SNAPSHOT_DIR = "classpath";
+
 	private static volatile Plugin plugin;
 
 	private BundleContext bundleContext;
@@ -64,6 +80,9 @@ public class Plugin extends AbstractUIPlugin {
     private volatile ServiceTracker workspaceTracker;
     private volatile ServiceRegistration urlHandlerReg;
     private volatile Central central;
+    private volatile BuildStateStore buildStateStore;
+    private volatile ClasspathSnapshotStore classpathSnapshotStore;
+    private final BuildMetrics buildMetrics = new BuildMetrics();
 
 	@Override
     public void start(BundleContext context) throws Exception {
@@ -76,6 +95,9 @@ public class Plugin extends AbstractUIPlugin {
 		bndActivator.start(context);
 
 		central = new Central();
+		buildStateStore = new BuildStateStore(getStateLocation().append(BUILD_STATE_DIR).toFile());
+		ResourcesPlugin.getWorkspace().addSaveParticipant(this, buildStateStore);
+		classpathSnapshotStore = new ClasspathSnapshotStore(getStateLocation().append(CLASSPATH_SNAPSHOT_DIR).toFile());
 
 		repositoryModel = new RepositoryModel();
 
@@ -111,6 +133,7 @@ public class Plugin extends AbstractUIPlugin {
 
     @Override
     public void stop(BundleContext context) throws Exception {
+		ResourcesPlugin.getWorkspace().removeSaveParticipant(this);
 		bndActivator.stop(context);
 		central.close();
 		this.bundleContext = null;
@@ -236,10 +259,26 @@ public class Plugin extends AbstractUIPlugin {
 		log(new Status(IStatus.ERROR, PLUGIN_ID, 0, message, exception));
 	}
 
+	public static void logWarning(String message, Throwable exception) {
+		log(new Status(IStatus.WARNING, PLUGIN_ID, 0, message, exception));
+	}
+
     public Central getCentral() {
         return central;
     }
 
+    public BuildStateStore getBuildStateStore() {
+        return buildStateStore;
+    }
+
+    public ClasspathSnapshotStore getClasspathSnapshotStore() {
+        return classpathSnapshotStore;
+    }
+
+    public BuildMetrics getBuildMetrics() {
+        return buildMetrics;
+    }
+
 	public static ImageDescriptor imageDescriptorFromPlugin(String imageFilePath) {
 		return AbstractUIPlugin.imageDescriptorFromPlugin(PLUGIN_ID, imageFilePath);
 	}
@@ -0,0 +1,223 @@
+package bndtools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+
+import aQute.bnd.service.RepositoryPlugin;
+import aQute.lib.deployer.FileRepo;
+
+/**
+ * Keeps the local repository index up to date as bundles are added to,
+ * replaced in or removed from file repositories. Changes are reported by
+ * resource change events for JAR files, by bnd when it writes files and by
+ * the code that puts bundles into repositories; they are queued and applied
+ * to the index together after a short delay. Only the changed bundles are
+ * analysed, and the index is regenerated in full only if it cannot be
+ * updated incrementally.
+ */
+class RepositoryIndexUpdateJob extends Job implements IResourceChangeListener {
+
+    /** Delay before draining the queue, so that a burst of changes is handled together. */
+    private static final long DELAY = 1000;
+    private static final String JAR_EXTENSION = "jar";
+    private static final String BND_EXTENSION = "bnd";
+
+    private final Set<File> pendingFiles = new LinkedHashSet<File>();
+    private boolean pendingFullIndex = false;
+
+    /** Root paths of the file repositories, or null if not yet known. */
+    private volatile List<String> repositoryRoots = null;
+
+    RepositoryIndexUpdateJob() {
+        super("Updating repository index");
+        setSystem(true);
+        setRule(LocalRepositoryTasks.getCnfProject());
+    }
+
+    /**
+     * Queue bundle files that have been added, replaced or removed. Files
+     * that are not in a file repository are ignored.
+     */
+    void enqueue(Collection<File> files) {
+        if (files.isEmpty())
+            return;
+        List<File> repositoryFiles;
+        try {
+            repositoryFiles = getRepositoryFiles(files);
+        } catch (Exception e) {
+            Plugin.logError("Error finding the file repositories for the repository index", e);
+            return;
+        }
+        if (repositoryFiles.isEmpty())
+            return;
+        synchronized (this) {
+            pendingFiles.addAll(repositoryFiles);
+        }
+        schedule(DELAY);
+    }
+
+    /**
+     * Forget the root folders of the file repositories, e.g. because the
+     * workspace configuration has changed.
+     */
+    void repositoriesChanged() {
+        repositoryRoots = null;
+    }
+
+    void enqueueFullIndex() {
+        synchronized (this) {
+            pendingFullIndex = true;
+        }
+        schedule(DELAY);
+    }
+
+    public void resourceChanged(IResourceChangeEvent event) {
+        IResourceDelta delta = event.getDelta();
+        if (delta == null)
+            return;
+
+        final List<File> files = new ArrayList<File>();
+        final boolean[] indexRemoved = new boolean[] { false };
+        try {
+            delta.accept(new IResourceDeltaVisitor() {
+                public boolean visit(IResourceDelta delta) throws CoreException {
+                    IResource resource = delta.getResource();
+                    if (resource.getType() != IResource.FILE)
+                        return true;
+                    if (delta.getKind() == IResourceDelta.CHANGED && (delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) == 0)
+                        return false;
+
+                    if (isWorkspaceConfiguration(resource))
+                        repositoriesChanged();
+                    if (JAR_EXTENSION.equalsIgnoreCase(resource.getFileExtension())) {
+                        IPath location = resource.getLocation();
+                        if (location != null)
+                            files.add(location.toFile());
+                    } else if (delta.getKind() == IResourceDelta.REMOVED && isRepositoryIndex((IFile) resource)) {
+                        indexRemoved[0] = true;
+                    }
+                    return false;
+                }
+            });
+        } catch (CoreException e) {
+            Plugin.logError("Error processing resource changes for the repository index", e);
+        }
+
+        if (indexRemoved[0]) {
+            RepositoryIndexerJob.invalidate();
+            enqueueFullIndex();
+        }
+        enqueue(files);
+    }
+
+    /**
+     * Returns whether the file is a bnd file of the configuration project,
+     * which may define the repositories.
+     */
+    private static boolean isWorkspaceConfiguration(IResource file) {
+        return BND_EXTENSION.equalsIgnoreCase(file.getFileExtension()) && file.getProject().equals(LocalRepositoryTasks.getCnfProject());
+    }
+
+    private static boolean isRepositoryIndex(IFile file) {
+        return file.getParent().equals(LocalRepositoryTasks.getCnfProject()) && LocalRepositoryTasks.REPOSITORY_INDEX.equals(file.getName());
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        List<File> files;
+        boolean fullIndex;
+        synchronized (this) {
+            files = new ArrayList<File>(pendingFiles);
+            fullIndex = pendingFullIndex;
+            pendingFiles.clear();
+            pendingFullIndex = false;
+        }
+
+        SubMonitor progress = SubMonitor.convert(monitor, 2);
+        try {
+            if (!fullIndex) {
+                if (files.isEmpty())
+                    return Status.OK_STATUS;
+                fullIndex = !LocalRepositoryTasks.updateRepositoryIndex(files, progress.newChild(1));
+            }
+            if (fullIndex)
+                LocalRepositoryTasks.indexRepositories(progress.newChild(1));
+        } catch (OperationCanceledException e) {
+            requeue(files, fullIndex);
+            return Status.CANCEL_STATUS;
+        } catch (Exception e) {
+            requeue(files, fullIndex);
+            return new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, "Error updating the repository index.", e);
+        }
+        return Status.OK_STATUS;
+    }
+
+    /**
+     * Put back the work of a run that did not complete, so that the next run
+     * does it. The job is not rescheduled, so that a persistent error does
+     * not make it run over and over.
+     */
+    private synchronized void requeue(List<File> files, boolean fullIndex) {
+        pendingFiles.addAll(files);
+        pendingFullIndex |= fullIndex;
+    }
+
+    /**
+     * Returns the JAR files that lie inside the root folder of a file
+     * repository. The repositories are only looked up if there are JAR files.
+     */
+    private List<File> getRepositoryFiles(Collection<File> files) throws Exception {
+        List<File> result = new ArrayList<File>(files.size());
+        List<String> roots = null;
+        for (File file : files) {
+            String path = file.getAbsolutePath();
+            if (!path.toLowerCase().endsWith("." + JAR_EXTENSION))
+                continue;
+            if (roots == null)
+                roots = getRepositoryRoots();
+            for (String root : roots) {
+                if (path.startsWith(root)) {
+                    result.add(file);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<String> getRepositoryRoots() throws Exception {
+        List<String> roots = repositoryRoots;
+        if (roots != null)
+            return roots;
+
+        roots = new ArrayList<String>();
+        List<RepositoryPlugin> repos = Central.getWorkspace().getRepositories();
+        if (repos != null) {
+            for (RepositoryPlugin repo : repos) {
+                if (repo instanceof FileRepo)
+                    roots.add(((FileRepo) repo).getRoot().getAbsolutePath() + File.separator);
+            }
+        }
+        repositoryRoots = roots;
+        return roots;
+    }
+}
@@ -18,15 +18,27 @@ public class RepositoryIndexerJob extends Job {
 
     private static final AtomicReference<Job> jobRef = new AtomicReference<Job>(null);
 
-    private RepositoryIndexerJob(String name) {
+    /**
+     * Whether the index is known to exist. Once it does, it is kept up to date
+     * by the {@link RepositoryIndexUpdateJob}, so it does not need to be
+     * checked again until it is deleted.
+     */
+    private static volatile boolean indexExists = false;
+
+    private RepositoryIndexerJob(String name, IProject cnfProject) {
         super(name);
+        setRule(cnfProject);
     }
 
     public static void runIfNeeded() {
+        if (indexExists)
+            return;
         IProject cnfProject = ResourcesPlugin.getWorkspace().getRoot().getProject(Project.BNDCNF);
-        IFile repoFile = cnfProject.getFile("repository.xml");
-        if (!repoFile.exists()) {
-            RepositoryIndexerJob job = new RepositoryIndexerJob("Indexing repositories...");
+        IFile repoFile = cnfProject.getFile(LocalRepositoryTasks.REPOSITORY_INDEX);
+        if (repoFile.exists()) {
+            indexExists = true;
+        } else {
+            RepositoryIndexerJob job = new RepositoryIndexerJob("Indexing repositories...", cnfProject);
             job.setSystem(true);
             job.addJobChangeListener(new JobChangeAdapter() {
                 @Override
@@ -41,6 +53,14 @@ public class RepositoryIndexerJob extends Job {
         }
     }
 
+    /**
+     * Record that the index has been deleted, so that the next call to
+     * {@link #runIfNeeded()} checks for it again.
+     */
+    static void invalidate() {
+        indexExists = false;
+    }
+
     public static void joinRunningInstance(IProgressMonitor monitor) throws InterruptedException {
         Job job = jobRef.get();
 
@@ -55,6 +75,7 @@ public class RepositoryIndexerJob extends Job {
     protected IStatus run(IProgressMonitor monitor) {
         try {
             LocalRepositoryTasks.indexRepositories(monitor);
+            indexExists = true;
             return Status.OK_STATUS;
         } catch (Exception e) {
             return new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, "Error indexing local repositories.", e);
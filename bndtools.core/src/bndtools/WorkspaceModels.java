@@ -0,0 +1,104 @@
+package bndtools;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
+
+/**
+ * Helpers for releasing and measuring the project models that bnd retains.
+ * <p>
+ * A bnd {@link Workspace} keeps every project model that it creates in a
+ * private map for as long as the workspace exists, and offers no API to remove
+ * them. Releasing a model therefore also removes it from that map, if it can
+ * be accessed, so that the model can be garbage collected.
+ */
+final class WorkspaceModels {
+
+    private static final String MODELS_FIELD = "models";
+
+    /** Rough size of a model without its properties. */
+    private static final long MODEL_OVERHEAD = 4096;
+    /** Rough size of a property entry, in addition to its characters. */
+    private static final long PROPERTY_OVERHEAD = 64;
+
+    private static volatile boolean accessible = true;
+
+    private WorkspaceModels() {
+    }
+
+    /**
+     * Remove the model from the project models retained by its bnd workspace,
+     * unless the workspace has already replaced it with another model.
+     */
+    static void release(Project model) {
+        Map<String, Project> models = getModels(model.getWorkspace());
+        if (models == null)
+            return;
+        synchronized (models) {
+            if (models.get(model.getName()) == model)
+                models.remove(model.getName());
+        }
+    }
+
+    /**
+     * Returns the number of project models retained by the bnd workspace, or
+     * -1 if it cannot be determined.
+     */
+    static int getRetainedCount(Workspace workspace) {
+        Map<String, Project> models = getModels(workspace);
+        if (models == null)
+            return -1;
+        synchronized (models) {
+            return models.size();
+        }
+    }
+
+    /**
+     * Returns a copy of the project models retained by the bnd workspace.
+     * {@link Workspace#getCurrentProjects()} returns a live view of the map
+     * that it does not synchronize, so the copy is taken while holding the
+     * monitor under which bnd adds models to it.
+     */
+    static Collection<Project> getRetainedModels(Workspace workspace) {
+        Map<String, Project> models = getModels(workspace);
+        if (models == null)
+            return new ArrayList<Project>(workspace.getCurrentProjects());
+        synchronized (models) {
+            return new ArrayList<Project>(models.values());
+        }
+    }
+
+    /**
+     * Returns a rough estimate of the heap retained by a model, based on the
+     * size of its properties.
+     */
+    static long estimateSize(Project model) {
+        long size = MODEL_OVERHEAD;
+        for (Entry<Object, Object> entry : model.getProperties().entrySet()) {
+            size += PROPERTY_OVERHEAD + 2 * (entry.getKey().toString().length() + entry.getValue().toString().length());
+        }
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Project> getModels(Workspace workspace) {
+        if (workspace == null || !accessible)
+            return null;
+        try {
+            Field field = Workspace.class.getDeclaredField(MODELS_FIELD);
+            field.setAccessible(true);
+            return (Map<String, Project>) field.get(workspace);
+        } catch (Exception e) {
+            // Different version of bnd; models are then only released by
+            // the registry in Central
+            accessible = false;
+            Plugin.logError("Unable to access the project models of the bnd workspace", e);
+            return null;
+        }
+    }
+}
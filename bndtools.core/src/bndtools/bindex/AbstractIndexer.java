@@ -1,26 +1,45 @@
 package bndtools.bindex;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.URL;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.SubMonitor;
+import org.osgi.impl.bundle.obr.resource.BundleInfo;
 import org.osgi.impl.bundle.obr.resource.RepositoryImpl;
 import org.osgi.impl.bundle.obr.resource.ResourceImpl;
-import org.osgi.impl.bundle.obr.resource.Tag;
 import org.osgi.service.obr.Resource;
 
+import bndtools.Plugin;
+
 public abstract class AbstractIndexer implements IRepositoryIndexProvider {
 
     public static final String CATEGORY_NO_RUNTIME = "NORUNTIME";
@@ -35,6 +54,12 @@ public abstract class AbstractIndexer implements IRepositoryIndexProvider {
             "org.osgi.ee.minimum"
     }));
 
+    /** Suffix of output files that are written gzip-compressed. */
+    public static final String COMPRESSED_SUFFIX = ".gz";
+
+    private static final String INDEX_NAME = "LocalRepo";
+    private static final long CANCEL_POLL_MILLIS = 100;
+
     private URL url = null;
     private File outputFile = null;
 
@@ -71,23 +96,10 @@ public abstract class AbstractIndexer implements IRepositoryIndexProvider {
         generateResources(bindex, resources, progress.newChild(6));
 
         // Sort and generate index
-        List<Resource> sorted = new ArrayList<Resource>(resources);
-        Collections.sort(sorted, new Comparator<Resource>() {
-            public int compare(Resource o1, Resource o2) {
-                String s1 = getResourceName(o1);
-                String s2 = getResourceName(o2);
-                return s1.compareTo(s2);
-            }
-        });
+        sortResources(resources);
         progress.worked(1);
         workRemaining--;
-        Tag tag = doIndex(resources, "LocalRepo");
-        PrintWriter printWriter = new PrintWriter(repoFile);
-        try {
-            tag.print(0, printWriter);
-        } finally {
-            printWriter.close();
-        }
+        writeIndex(resources, repoFile);
         progress.worked(1);
         workRemaining--;
     }
@@ -108,17 +120,117 @@ public abstract class AbstractIndexer implements IRepositoryIndexProvider {
         url = null;
     }
 
-    private Tag doIndex(Collection<? extends Resource> resources, String name) throws IOException {
-        Tag repository = new Tag("repository");
-        repository.addAttribute("lastmodified", new Date());
-        repository.addAttribute("name", name);
+    /**
+     * Analyse the bundle files concurrently, on up to one thread per
+     * processor. The returned list is in the same order as the files,
+     * irrespective of the order in which the analyses completed; it contains
+     * {@code null} for any file that could not be analysed, and the error is
+     * logged.
+     *
+     * @throws OperationCanceledException
+     *             if the monitor is cancelled before all files are analysed.
+     */
+    protected List<ResourceImpl> analyseBundles(final RepositoryImpl bindex, List<File> files, IProgressMonitor monitor) throws InterruptedException {
+        SubMonitor progress = SubMonitor.convert(monitor, files.size());
+        List<ResourceImpl> result = new ArrayList<ResourceImpl>(Collections.<ResourceImpl> nCopies(files.size(), null));
+        if (files.isEmpty())
+            return result;
+
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), files.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new AnalyserThreadFactory());
+        try {
+            CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+            final ResourceImpl[] resources = new ResourceImpl[files.size()];
+            final File[] bundles = files.toArray(new File[files.size()]);
+            for (int i = 0; i < bundles.length; i++) {
+                final int index = i;
+                completion.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        try {
+                            resources[index] = new BundleInfo(bindex, bundles[index]).build();
+                        } catch (Exception e) {
+                            Plugin.logError("Error analysing bundle " + bundles[index] + " for repository index", e);
+                        }
+                        return index;
+                    }
+                });
+            }
+
+            // Progress is only reported from the calling thread, as monitors
+            // are not thread safe
+            int remaining = bundles.length;
+            while (remaining > 0) {
+                if (progress.isCanceled())
+                    throw new OperationCanceledException();
+                Future<Integer> future = completion.poll(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (future == null)
+                    continue;
+                remaining--;
+                try {
+                    int index = future.get();
+                    result.set(index, resources[index]);
+                } catch (ExecutionException e) {
+                    Plugin.logError("Unexpected error analysing bundle for repository index", e.getCause());
+                }
+                progress.worked(1);
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sort resources into the order in which they are written to the index:
+     * by symbolic name, then by URL.
+     */
+    protected void sortResources(List<Resource> resources) {
+        Collections.sort(resources, new Comparator<Resource>() {
+            public int compare(Resource o1, Resource o2) {
+                int diff = getResourceName(o1).compareTo(getResourceName(o2));
+                if (diff == 0)
+                    diff = String.valueOf(o1.getURL()).compareTo(String.valueOf(o2.getURL()));
+                return diff;
+            }
+        });
+    }
 
-        for (Resource resource : resources) {
-            Tag xml = ResourceImpl.toXML(resource);
-            repository.addContent(xml);
+    /**
+     * Stream the index to the file, compressing it if the file name ends with
+     * {@link #COMPRESSED_SUFFIX}. If the file is the output file, rather than
+     * a temporary file, its {@link BinaryIndex} form is then written next to
+     * it from the same resources.
+     */
+    protected void writeIndex(List<Resource> resources, File file) throws IOException, XMLStreamException {
+        Date lastModified = new Date();
+        MessageDigest digest = BinaryIndex.createDigest();
+        OutputStream out = new BufferedOutputStream(new DigestOutputStream(new FileOutputStream(file), digest));
+        try {
+            if (file.getName().endsWith(COMPRESSED_SUFFIX))
+                out = new GZIPOutputStream(out);
+            RepositoryIndexWriter writer = new RepositoryIndexWriter(out);
+            writer.startRepository(INDEX_NAME, lastModified);
+            for (Resource resource : resources) {
+                writer.writeResource(resource);
+            }
+            writer.endRepository();
+        } finally {
+            out.close();
         }
 
-        return repository;
+        if (!file.equals(outputFile))
+            return;
+        File binaryFile = BinaryIndex.getBinaryFile(file);
+        try {
+            BinaryIndexWriter binaryWriter = new BinaryIndexWriter(INDEX_NAME, RepositoryIndexWriter.formatLastModified(lastModified));
+            for (Resource resource : resources) {
+                binaryWriter.addResource(resource);
+            }
+            if (!binaryWriter.write(binaryFile, file.length(), digest.digest()))
+                Plugin.logWarning("Unable to replace binary repository index " + binaryFile + ", which may be in use. The XML index will be used until it is next written.", null);
+        } catch (Exception e) {
+            Plugin.logError("Error writing binary repository index for " + file, e);
+        }
     }
 
     private String getResourceName(Resource resource) {
@@ -135,4 +247,14 @@ public abstract class AbstractIndexer implements IRepositoryIndexProvider {
         return !EXCLUDED_BSNS.contains(symbolicName);
     }
 
+    private static class AnalyserThreadFactory implements ThreadFactory {
+        private static final AtomicInteger counter = new AtomicInteger(0);
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Bindex bundle analyser " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 }
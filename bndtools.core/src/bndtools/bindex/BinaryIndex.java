@@ -0,0 +1,250 @@
+package bndtools.bindex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Read access to the compact binary form of an OBR repository index, which
+ * is written next to the XML index whenever a persistent index is generated.
+ * The file is memory-mapped, and strings are decoded only when they are used,
+ * so opening an index costs little more than reading the XML index once to
+ * check its digest, however many resources it contains.
+ * <p>
+ * The file starts with a header recording the size and SHA-1 digest of the
+ * XML index it was generated from, followed by a table of all distinct strings,
+ * the offsets of the resources and the resources themselves. Each resource
+ * is a sequence of integers referring to strings in the table: its
+ * properties, categories, capabilities and requirements.
+ */
+public final class BinaryIndex {
+
+    /** Suffix appended to the name of the XML index to name the binary index. */
+    public static final String SUFFIX = ".bidx";
+
+    static final int MAGIC = 0x42494458;
+    static final int VERSION = 2;
+    static final int NO_STRING = -1;
+
+    static final int FLAG_EXTEND = 1;
+    static final int FLAG_MULTIPLE = 2;
+    static final int FLAG_OPTIONAL = 4;
+
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    static final int DIGEST_LENGTH = 20;
+
+    private static final int DIGEST_OFFSET = 4 + 4 + 8;
+    private static final int REPOSITORY_OFFSET = DIGEST_OFFSET + DIGEST_LENGTH;
+    private static final int HEADER_SIZE = REPOSITORY_OFFSET + 4 + 4;
+
+    private final ByteBuffer buffer;
+    private final String[] strings;
+    private final int stringOffsetsStart;
+    private final int stringDataStart;
+    private final int resourceCount;
+    private final int resourceOffsetsStart;
+    private final int resourceDataStart;
+
+    private BinaryIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        int position = HEADER_SIZE;
+        strings = new String[buffer.getInt(position)];
+        stringOffsetsStart = position + 4;
+        position = stringOffsetsStart + strings.length * 4;
+        int stringDataLength = buffer.getInt(position);
+        stringDataStart = position + 4;
+        position = stringDataStart + stringDataLength;
+
+        resourceCount = buffer.getInt(position);
+        resourceOffsetsStart = position + 4;
+        resourceDataStart = resourceOffsetsStart + resourceCount * 4;
+    }
+
+    /**
+     * Returns the binary file for the specified XML index.
+     */
+    public static File getBinaryFile(File xmlFile) {
+        return new File(xmlFile.getParentFile(), xmlFile.getName() + SUFFIX);
+    }
+
+    /**
+     * Open the binary form of the specified XML index.
+     *
+     * @return {@code null} if there is no binary index, or if it is out of
+     *         date with respect to the XML index.
+     */
+    public static BinaryIndex open(File xmlFile) throws IOException {
+        File binaryFile = getBinaryFile(xmlFile);
+        if (!binaryFile.isFile() || !xmlFile.isFile())
+            return null;
+
+        RandomAccessFile file = new RandomAccessFile(binaryFile, "r");
+        ByteBuffer buffer;
+        try {
+            if (file.length() < HEADER_SIZE)
+                return null;
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            // The mapping remains valid after the file is closed
+            file.close();
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            return null;
+        if (buffer.getLong(8) != xmlFile.length())
+            return null;
+        // The size and timestamp of the XML index can stay the same when its
+        // contents change, so only its digest is trusted
+        byte[] digest = digest(xmlFile);
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            if (buffer.get(DIGEST_OFFSET + i) != digest[i])
+                return null;
+        }
+        return new BinaryIndex(buffer);
+    }
+
+    /**
+     * Returns a new digest of the kind recorded for the XML index.
+     */
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] digest(File file) throws IOException {
+        MessageDigest digest = createDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[8192];
+            int count;
+            while ((count = in.read(bytes)) >= 0)
+                digest.update(bytes, 0, count);
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    public String getRepositoryName() {
+        return getString(buffer.getInt(REPOSITORY_OFFSET));
+    }
+
+    public String getRepositoryLastModified() {
+        return getString(buffer.getInt(REPOSITORY_OFFSET + 4));
+    }
+
+    public int getResourceCount() {
+        return resourceCount;
+    }
+
+    /**
+     * Returns the value of a resource property, such as
+     * {@code symbolicname}, {@code version} or {@code uri}, or {@code null}
+     * if the resource does not have the property.
+     */
+    public String getResourceProperty(int resource, String name) {
+        int position = getResourceStart(resource);
+        int count = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < count; i++, position += 12) {
+            if (name.equals(getString(buffer.getInt(position))))
+                return getString(buffer.getInt(position + 8));
+        }
+        return null;
+    }
+
+    /**
+     * Pass the contents of a resource to the visitor, in the order
+     * properties, categories, capabilities, requirements.
+     */
+    public void visitResource(int resource, ResourceVisitor visitor) {
+        int position = getResourceStart(resource);
+
+        int count = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < count; i++, position += 12) {
+            visitor.property(getString(buffer.getInt(position)), getString(buffer.getInt(position + 4)), getString(buffer.getInt(position + 8)));
+        }
+
+        count = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < count; i++, position += 4) {
+            visitor.category(getString(buffer.getInt(position)));
+        }
+
+        count = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < count; i++) {
+            visitor.startCapability(getString(buffer.getInt(position)));
+            int properties = buffer.getInt(position + 4);
+            position += 8;
+            for (int j = 0; j < properties; j++, position += 12) {
+                visitor.capabilityProperty(getString(buffer.getInt(position)), getString(buffer.getInt(position + 4)), getString(buffer.getInt(position + 8)));
+            }
+        }
+
+        count = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < count; i++, position += 16) {
+            int flags = buffer.getInt(position + 8);
+            visitor.requirement(getString(buffer.getInt(position)), getString(buffer.getInt(position + 4)), (flags & FLAG_EXTEND) != 0, (flags & FLAG_MULTIPLE) != 0, (flags & FLAG_OPTIONAL) != 0, getString(buffer.getInt(position + 12)));
+        }
+    }
+
+    private int getResourceStart(int resource) {
+        if (resource < 0 || resource >= resourceCount)
+            throw new IndexOutOfBoundsException("Resource index " + resource);
+        return resourceDataStart + buffer.getInt(resourceOffsetsStart + resource * 4);
+    }
+
+    private String getString(int index) {
+        if (index == NO_STRING)
+            return null;
+        synchronized (strings) {
+            String string = strings[index];
+            if (string == null) {
+                int start = buffer.getInt(stringOffsetsStart + index * 4);
+                int end = buffer.getInt(stringOffsetsStart + index * 4 + 4);
+                byte[] bytes = new byte[end - start];
+                for (int i = 0; i < bytes.length; i++)
+                    bytes[i] = buffer.get(stringDataStart + start + i);
+                try {
+                    string = new String(bytes, "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    // UTF-8 is always supported
+                    throw new IllegalStateException(e);
+                }
+                strings[index] = string;
+            }
+            return string;
+        }
+    }
+
+    /**
+     * Receives the contents of a resource from
+     * {@link BinaryIndex#visitResource(int, ResourceVisitor)}.
+     */
+    public interface ResourceVisitor {
+        void property(String name, String type, String value);
+
+        void category(String id);
+
+        void startCapability(String name);
+
+        void capabilityProperty(String name, String type, String value);
+
+        void requirement(String name, String filter, boolean extend, boolean multiple, boolean optional, String comment);
+    }
+}
@@ -0,0 +1,90 @@
+package bndtools.bindex;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import org.apache.felix.bundlerepository.Repository;
+import org.apache.felix.bundlerepository.impl.CapabilityImpl;
+import org.apache.felix.bundlerepository.impl.RepositoryImpl;
+import org.apache.felix.bundlerepository.impl.RequirementImpl;
+import org.apache.felix.bundlerepository.impl.ResourceImpl;
+
+/**
+ * A Felix OBR repository loaded from a {@link BinaryIndex} rather than parsed
+ * from XML. Relative resource URIs are resolved against the URL of the XML
+ * index, exactly as if the XML had been parsed.
+ */
+public class BinaryIndexRepository extends RepositoryImpl {
+
+    private BinaryIndexRepository(URL xmlUrl, BinaryIndex index) {
+        setURI(xmlUrl.toExternalForm());
+        setName(index.getRepositoryName());
+        if (index.getRepositoryLastModified() != null)
+            setLastModified(index.getRepositoryLastModified());
+
+        for (int i = 0; i < index.getResourceCount(); i++) {
+            ResourceBuilder builder = new ResourceBuilder();
+            index.visitResource(i, builder);
+            addResource(builder.resource);
+        }
+    }
+
+    /**
+     * Load the repository from the binary form of the XML index at the
+     * specified URL.
+     *
+     * @return {@code null} if the URL is not a local file or there is no
+     *         up-to-date binary index, in which case the XML index should be
+     *         parsed instead.
+     */
+    public static Repository load(URL xmlUrl) throws IOException {
+        if (!"file".equals(xmlUrl.getProtocol()))
+            return null;
+        File xmlFile;
+        try {
+            xmlFile = new File(xmlUrl.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        BinaryIndex index = BinaryIndex.open(xmlFile);
+        if (index == null)
+            return null;
+        return new BinaryIndexRepository(xmlUrl, index);
+    }
+
+    private static class ResourceBuilder implements BinaryIndex.ResourceVisitor {
+
+        final ResourceImpl resource = new ResourceImpl();
+        private CapabilityImpl capability = null;
+
+        public void property(String name, String type, String value) {
+            resource.put(name, value, type);
+        }
+
+        public void category(String id) {
+            resource.addCategory(id);
+        }
+
+        public void startCapability(String name) {
+            capability = new CapabilityImpl(name);
+            resource.addCapability(capability);
+        }
+
+        public void capabilityProperty(String name, String type, String value) {
+            capability.addProperty(name, type, value);
+        }
+
+        public void requirement(String name, String filter, boolean extend, boolean multiple, boolean optional, String comment) {
+            RequirementImpl requirement = new RequirementImpl(name);
+            requirement.setFilter(filter);
+            requirement.setExtend(extend);
+            requirement.setMultiple(multiple);
+            requirement.setOptional(optional);
+            if (comment != null)
+                requirement.addText(comment);
+            resource.addRequire(requirement);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package bndtools.bindex;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.osgi.impl.bundle.obr.resource.ResourceImpl;
+import org.osgi.impl.bundle.obr.resource.Tag;
+import org.osgi.service.obr.Resource;
+
+import com.ctc.wstx.stax.WstxInputFactory;
+
+/**
+ * Converts the resources of an OBR repository index into the
+ * {@link BinaryIndex} format. Resources are converted from the same XML tags
+ * that the {@link RepositoryIndexWriter} writes, so that the binary index
+ * holds exactly what a parser of the XML index would read; resources
+ * restored from the {@link ResourceFragmentCache} are parsed from their
+ * cached XML. Every string is stored once in the string table and referred
+ * to by its index.
+ */
+class BinaryIndexWriter {
+
+    private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    private final ByteArrayOutputStream resourceBytes = new ByteArrayOutputStream();
+    private final DataOutputStream resourceData = new DataOutputStream(resourceBytes);
+    private final List<Integer> resourceOffsets = new ArrayList<Integer>();
+
+    private final int repositoryName;
+    private final int repositoryLastModified;
+
+    /**
+     * @param repositoryName
+     *            the name attribute of the repository element.
+     * @param repositoryLastModified
+     *            the lastmodified attribute of the repository element.
+     */
+    BinaryIndexWriter(String repositoryName, String repositoryLastModified) {
+        this.repositoryName = intern(repositoryName);
+        this.repositoryLastModified = intern(repositoryLastModified);
+    }
+
+    /**
+     * Add a resource. Resources must be added in the order in which they
+     * appear in the XML index.
+     */
+    void addResource(Resource resource) throws XMLStreamException, IOException {
+        if (resource instanceof CachedResource)
+            parseFragment(((CachedResource) resource).getFragment());
+        else
+            addResource(ResourceImpl.toXML(resource));
+    }
+
+    /**
+     * Write the binary index to the binary file, recording the size and
+     * digest of the XML index that holds the same resources. The file is
+     * written under a temporary name first, so that readers never see a
+     * partially written index.
+     *
+     * @return {@code false} if the existing binary file could not be
+     *         replaced, e.g. because it is still mapped by a reader on a
+     *         platform that does not allow mapped files to be deleted. The
+     *         existing file then no longer matches the digest of the XML
+     *         index, and readers ignore it.
+     */
+    boolean write(File binaryFile, long xmlLength, byte[] xmlDigest) throws IOException {
+        File temp = new File(binaryFile.getParentFile(), binaryFile.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            writeTo(out, xmlLength, xmlDigest);
+        } finally {
+            out.close();
+        }
+        binaryFile.delete();
+        if (!temp.renameTo(binaryFile)) {
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private void parseFragment(String fragment) throws XMLStreamException, IOException {
+        XMLStreamReader reader = new WstxInputFactory().createXMLStreamReader(new StringReader(fragment));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "resource".equals(reader.getLocalName()))
+                    parseResource(reader);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void parseResource(XMLStreamReader reader) throws XMLStreamException, IOException {
+        List<int[]> properties = new ArrayList<int[]>();
+        List<Integer> categories = new ArrayList<Integer>();
+        List<int[]> capabilities = new ArrayList<int[]>();
+        List<int[]> requirements = new ArrayList<int[]>();
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            properties.add(new int[] { intern(reader.getAttributeLocalName(i)), BinaryIndex.NO_STRING, intern(reader.getAttributeValue(i)) });
+        }
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = reader.getLocalName();
+            if ("category".equals(name)) {
+                categories.add(intern(reader.getAttributeValue(null, "id")));
+                skipElement(reader);
+            } else if ("capability".equals(name)) {
+                capabilities.add(parseCapability(reader));
+            } else if ("require".equals(name)) {
+                int flags = 0;
+                if (Boolean.valueOf(reader.getAttributeValue(null, "extend")).booleanValue())
+                    flags |= BinaryIndex.FLAG_EXTEND;
+                if (Boolean.valueOf(reader.getAttributeValue(null, "multiple")).booleanValue())
+                    flags |= BinaryIndex.FLAG_MULTIPLE;
+                if (Boolean.valueOf(reader.getAttributeValue(null, "optional")).booleanValue())
+                    flags |= BinaryIndex.FLAG_OPTIONAL;
+                int requirementName = intern(reader.getAttributeValue(null, "name"));
+                int filter = intern(reader.getAttributeValue(null, "filter"));
+                String text = reader.getElementText();
+                int comment = text.length() > 0 ? intern(text) : BinaryIndex.NO_STRING;
+                requirements.add(new int[] { requirementName, filter, flags, comment });
+            } else {
+                int type = intern(reader.getAttributeValue(null, "type"));
+                properties.add(new int[] { intern(name), type, intern(reader.getElementText()) });
+            }
+        }
+
+        writeResource(properties, categories, capabilities, requirements);
+    }
+
+    /**
+     * Add a resource from the tag that {@link RepositoryIndexWriter} writes
+     * for it, reading the same values as {@link #parseResource} reads from
+     * the XML.
+     */
+    private void addResource(Tag tag) throws IOException {
+        List<int[]> properties = new ArrayList<int[]>();
+        List<Integer> categories = new ArrayList<Integer>();
+        List<int[]> capabilities = new ArrayList<int[]>();
+        List<int[]> requirements = new ArrayList<int[]>();
+
+        for (Object o : tag.getAttributes().entrySet()) {
+            Map.Entry<?, ?> attribute = (Map.Entry<?, ?>) o;
+            properties.add(new int[] { intern(String.valueOf(attribute.getKey())), BinaryIndex.NO_STRING, intern(String.valueOf(attribute.getValue())) });
+        }
+
+        for (Tag child : getChildren(tag)) {
+            String name = child.getName();
+            if ("category".equals(name)) {
+                categories.add(intern(getAttribute(child, "id")));
+            } else if ("capability".equals(name)) {
+                List<Tag> capabilityProperties = getChildren(child);
+                int[] capability = new int[2 + 3 * capabilityProperties.size()];
+                capability[0] = intern(getAttribute(child, "name"));
+                capability[1] = capabilityProperties.size();
+                int i = 2;
+                for (Tag property : capabilityProperties) {
+                    capability[i++] = intern(getAttribute(property, "n"));
+                    capability[i++] = intern(getAttribute(property, "t"));
+                    capability[i++] = intern(getAttribute(property, "v"));
+                }
+                capabilities.add(capability);
+            } else if ("require".equals(name)) {
+                int flags = 0;
+                if (Boolean.valueOf(getAttribute(child, "extend")).booleanValue())
+                    flags |= BinaryIndex.FLAG_EXTEND;
+                if (Boolean.valueOf(getAttribute(child, "multiple")).booleanValue())
+                    flags |= BinaryIndex.FLAG_MULTIPLE;
+                if (Boolean.valueOf(getAttribute(child, "optional")).booleanValue())
+                    flags |= BinaryIndex.FLAG_OPTIONAL;
+                String text = getText(child);
+                int comment = text.length() > 0 ? intern(text) : BinaryIndex.NO_STRING;
+                requirements.add(new int[] { intern(getAttribute(child, "name")), intern(getAttribute(child, "filter")), flags, comment });
+            } else {
+                properties.add(new int[] { intern(name), intern(getAttribute(child, "type")), intern(getText(child)) });
+            }
+        }
+
+        writeResource(properties, categories, capabilities, requirements);
+    }
+
+    private static List<Tag> getChildren(Tag tag) {
+        List<Tag> children = new ArrayList<Tag>();
+        for (Object content : tag.getContents()) {
+            if (content instanceof Tag)
+                children.add((Tag) content);
+        }
+        return children;
+    }
+
+    /**
+     * Returns the attribute as {@link RepositoryIndexWriter} writes it.
+     */
+    private static String getAttribute(Tag tag, String name) {
+        Map<?, ?> attributes = tag.getAttributes();
+        return attributes.containsKey(name) ? String.valueOf(attributes.get(name)) : null;
+    }
+
+    /**
+     * Returns the text of the tag as {@link RepositoryIndexWriter} writes it.
+     */
+    private static String getText(Tag tag) {
+        StringBuilder text = new StringBuilder();
+        for (Object content : tag.getContents()) {
+            if (content != null && !(content instanceof Tag))
+                text.append(content);
+        }
+        return text.toString();
+    }
+
+    private void writeResource(List<int[]> properties, List<Integer> categories, List<int[]> capabilities, List<int[]> requirements) throws IOException {
+        resourceOffsets.add(resourceData.size());
+        writeTuples(properties);
+        resourceData.writeInt(categories.size());
+        for (Integer category : categories) {
+            resourceData.writeInt(category);
+        }
+        resourceData.writeInt(capabilities.size());
+        for (int[] capability : capabilities) {
+            writeInts(capability);
+        }
+        writeTuples(requirements);
+    }
+
+    /**
+     * Returns the capability as its name, the number of properties and the
+     * name, type and value of each property.
+     */
+    private int[] parseCapability(XMLStreamReader reader) throws XMLStreamException {
+        List<Integer> result = new ArrayList<Integer>();
+        result.add(intern(reader.getAttributeValue(null, "name")));
+        result.add(0);
+        int count = 0;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            result.add(intern(reader.getAttributeValue(null, "n")));
+            result.add(intern(reader.getAttributeValue(null, "t")));
+            result.add(intern(reader.getAttributeValue(null, "v")));
+            count++;
+            skipElement(reader);
+        }
+        result.set(1, count);
+
+        int[] array = new int[result.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = result.get(i);
+        return array;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    private void writeTuples(List<int[]> tuples) throws IOException {
+        resourceData.writeInt(tuples.size());
+        for (int[] tuple : tuples) {
+            writeInts(tuple);
+        }
+    }
+
+    private void writeInts(int[] values) throws IOException {
+        for (int value : values) {
+            resourceData.writeInt(value);
+        }
+    }
+
+    private int intern(String string) {
+        if (string == null)
+            return BinaryIndex.NO_STRING;
+        Integer index = stringIndexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndexes.put(string, index);
+        }
+        return index;
+    }
+
+    private void writeTo(DataOutputStream out, long xmlLength, byte[] xmlDigest) throws IOException {
+        out.writeInt(BinaryIndex.MAGIC);
+        out.writeInt(BinaryIndex.VERSION);
+        out.writeLong(xmlLength);
+        out.write(xmlDigest, 0, BinaryIndex.DIGEST_LENGTH);
+        out.writeInt(repositoryName);
+        out.writeInt(repositoryLastModified);
+
+        // String table: offsets of each string and the end of the last one,
+        // followed by the UTF-8 bytes of all strings
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeInt(stringBytes.size());
+            stringBytes.write(string.getBytes("UTF-8"));
+        }
+        out.writeInt(stringBytes.size());
+        stringBytes.writeTo(out);
+
+        out.writeInt(resourceOffsets.size());
+        for (Integer offset : resourceOffsets) {
+            out.writeInt(offset);
+        }
+        resourceData.flush();
+        resourceBytes.writeTo(out);
+    }
+}
@@ -1,11 +1,11 @@
 package bndtools.bindex;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.SubMonitor;
-import org.osgi.impl.bundle.obr.resource.BundleInfo;
 import org.osgi.impl.bundle.obr.resource.RepositoryImpl;
 import org.osgi.impl.bundle.obr.resource.ResourceImpl;
 import org.osgi.service.obr.Resource;
@@ -37,23 +37,23 @@ public class BundleSelectionIndexer extends AbstractIndexer {
     @Override
     protected void generateResources(RepositoryImpl bindex, List<Resource> result, IProgressMonitor monitor) throws Exception {
         if (selection != null && project != null) {
-            int work = selection.size();
-            SubMonitor progress = SubMonitor.convert(monitor, work);
+            SubMonitor progress = SubMonitor.convert(monitor, 2);
+            List<File> files = new ArrayList<File>(selection.size());
             for (VersionedClause bundle : selection) {
                 Container container = project.getBundle(bundle.getName(), bundle.getVersionRange(), Strategy.HIGHEST, null);
 
                 if (container.getType() != TYPE.ERROR) {
-                    File file = container.getFile();
-                    BundleInfo info = new BundleInfo(bindex, file);
-                    ResourceImpl resource = info.build();
+                    files.add(container.getFile());
+                }
+            }
+            progress.worked(1);
 
+            for (ResourceImpl resource : analyseBundles(bindex, files, progress.newChild(1))) {
+                if (resource != null) {
                     resource.addCategory(CATEGORY);
-
                     result.add(resource);
-                    progress.worked(1);
                 }
             }
-            progress.setWorkRemaining(--work);
         }
     }
 
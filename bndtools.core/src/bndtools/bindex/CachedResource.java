@@ -0,0 +1,78 @@
+package bndtools.bindex;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+import org.osgi.framework.Version;
+import org.osgi.service.obr.Capability;
+import org.osgi.service.obr.Repository;
+import org.osgi.service.obr.Requirement;
+import org.osgi.service.obr.Resource;
+
+/**
+ * A resource restored from the {@link ResourceFragmentCache}. Only the
+ * symbolic name and URL are available; the rest of the resource is kept as
+ * the XML that was generated when the bundle was last analysed, and is
+ * written out unchanged by the {@link RepositoryIndexWriter}.
+ */
+class CachedResource implements Resource {
+
+    private static final Requirement[] NO_REQUIREMENTS = new Requirement[0];
+    private static final Capability[] NO_CAPABILITIES = new Capability[0];
+    private static final String[] NO_CATEGORIES = new String[0];
+
+    private final String bsn;
+    private final URL url;
+    private final String fragment;
+
+    CachedResource(String bsn, URL url, String fragment) {
+        this.bsn = bsn;
+        this.url = url;
+        this.fragment = fragment;
+    }
+
+    String getFragment() {
+        return fragment;
+    }
+
+    public String getSymbolicName() {
+        return bsn;
+    }
+
+    public URL getURL() {
+        return url;
+    }
+
+    public Map getProperties() {
+        return Collections.EMPTY_MAP;
+    }
+
+    public String getPresentationName() {
+        return bsn;
+    }
+
+    public Version getVersion() {
+        return null;
+    }
+
+    public String getId() {
+        return null;
+    }
+
+    public Requirement[] getRequirements() {
+        return NO_REQUIREMENTS;
+    }
+
+    public Capability[] getCapabilities() {
+        return NO_CAPABILITIES;
+    }
+
+    public String[] getCategories() {
+        return NO_CATEGORIES;
+    }
+
+    public Repository getRepository() {
+        return null;
+    }
+}
@@ -1,11 +1,10 @@
 package bndtools.bindex;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 
 import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.SubMonitor;
-import org.osgi.impl.bundle.obr.resource.BundleInfo;
 import org.osgi.impl.bundle.obr.resource.RepositoryImpl;
 import org.osgi.impl.bundle.obr.resource.ResourceImpl;
 import org.osgi.service.obr.Resource;
@@ -27,16 +26,12 @@ public class FileIndexer extends AbstractIndexer {
 
     @Override
     protected void generateResources(RepositoryImpl bindex, List<Resource> result, IProgressMonitor monitor) throws Exception {
-        SubMonitor progress = SubMonitor.convert(monitor, files.length);
-
-        for (File file : files) {
-            BundleInfo info = new BundleInfo(bindex, file);
-            ResourceImpl resource = info.build();
-
+        for (ResourceImpl resource : analyseBundles(bindex, Arrays.asList(files), monitor)) {
+            if (resource == null)
+                continue;
             if (category != null)
                 resource.addCategory(category);
             result.add(resource);
-            progress.worked(1);
         }
     }
 
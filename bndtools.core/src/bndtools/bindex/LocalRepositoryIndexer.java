@@ -1,11 +1,13 @@
 package bndtools.bindex;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.SubMonitor;
-import org.osgi.impl.bundle.obr.resource.BundleInfo;
 import org.osgi.impl.bundle.obr.resource.RepositoryImpl;
 import org.osgi.impl.bundle.obr.resource.ResourceImpl;
 import org.osgi.service.obr.Resource;
@@ -14,11 +16,16 @@ import aQute.bnd.service.RepositoryPlugin;
 import aQute.bnd.service.RepositoryPlugin.Strategy;
 import aQute.libg.version.Version;
 import bndtools.Central;
+import bndtools.Plugin;
 
 public class LocalRepositoryIndexer extends AbstractIndexer {
 
     public static final String CATEGORY = "__local_repo__";
 
+    private static final String CACHE_FILE = "bindex/localrepo.cache";
+
+    private ResourceFragmentCache cache;
+
     @Override
     public String getCategory() {
         return CATEGORY;
@@ -28,43 +35,129 @@ public class LocalRepositoryIndexer extends AbstractIndexer {
     protected void generateResources(RepositoryImpl bindex, List<Resource> result, IProgressMonitor monitor) throws Exception {
         List<RepositoryPlugin> bndRepos = Central.getWorkspace().getRepositories();
         if (bndRepos != null) {
-            processRepos(bndRepos, bindex, result, monitor);
+            cache = openCache();
+            try {
+                SubMonitor progress = SubMonitor.convert(monitor, 3);
+                List<File> files = new ArrayList<File>();
+                processRepos(bndRepos, files, progress.newChild(1));
+                processFiles(files, bindex, result, progress.newChild(2));
+                saveCache();
+            } finally {
+                cache = null;
+            }
         }
     }
 
-    private void processRepos(List<RepositoryPlugin> bndRepos, RepositoryImpl bindex, List<Resource> resources, IProgressMonitor monitor) throws Exception {
+    /**
+     * Apply changes to individual bundle files to the existing index: files
+     * that no longer exist are removed, and new or changed files are
+     * analysed and added or replaced. The resources of all other files are
+     * taken from the cache, so the repositories are not listed again.
+     *
+     * @return {@code false} if the index cannot be updated incrementally
+     *         because the index file or the cache is missing, in which case
+     *         the index should be regenerated in full.
+     */
+    public boolean update(Collection<File> files, IProgressMonitor monitor) throws Exception {
+        File repoFile = getOutputFile();
+        if (repoFile == null || !repoFile.isFile())
+            return false;
+
+        SubMonitor progress = SubMonitor.convert(monitor, getTaskLabel(), 3);
+        cache = openCache();
+        try {
+            if (cache.isEmpty())
+                return false;
+
+            boolean changed = false;
+            List<File> changedFiles = new ArrayList<File>();
+            for (File file : files) {
+                if (!file.isFile())
+                    changed |= cache.remove(file);
+                else if (cache.get(file) == null)
+                    changedFiles.add(file);
+            }
+
+            RepositoryImpl bindex = new RepositoryImpl(repoFile.toURI().toURL());
+            List<ResourceImpl> analysed = analyseBundles(bindex, changedFiles, progress.newChild(2));
+            for (int i = 0; i < analysed.size(); i++) {
+                ResourceImpl resource = analysed.get(i);
+                File bundleFile = changedFiles.get(i);
+                if (resource != null) {
+                    resource.setURL(bundleFile.toURI().toURL());
+                    resource.addCategory(CATEGORY);
+                    cache.put(bundleFile, resource);
+                    changed = true;
+                } else {
+                    // Do not write back the fragment of the previous contents
+                    changed |= cache.remove(bundleFile);
+                }
+            }
+
+            List<Resource> resources = new ArrayList<Resource>();
+            for (Resource resource : cache.getAll()) {
+                if (isValidRuntimeBundle(resource))
+                    resources.add(resource);
+            }
+            if (changed) {
+                sortResources(resources);
+                writeIndex(resources, repoFile);
+            }
+            saveCache();
+            progress.worked(1);
+            return true;
+        } finally {
+            cache = null;
+        }
+    }
+
+    private static ResourceFragmentCache openCache() {
+        ResourceFragmentCache cache = new ResourceFragmentCache(Plugin.getDefault().getStateLocation().append(CACHE_FILE).toFile());
+        cache.load();
+        return cache;
+    }
+
+    /**
+     * Save the cache once all files have been processed. The cache is not
+     * saved after an error or cancellation, as it would then no longer cover
+     * the whole repository.
+     */
+    private void saveCache() {
+        try {
+            cache.save();
+        } catch (IOException e) {
+            Plugin.logError("Error saving local repository index cache", e);
+        }
+    }
+
+    private void processRepos(List<RepositoryPlugin> bndRepos, List<File> files, IProgressMonitor monitor) throws Exception {
         SubMonitor progress = SubMonitor.convert(monitor, bndRepos.size());
         for (RepositoryPlugin bndRepo : bndRepos) {
             List<String> bsns = bndRepo.list(null);
             if (bsns != null) {
-                processRepoBundles(bndRepo, bsns, bindex, resources, progress.newChild(1));
+                processRepoBundles(bndRepo, bsns, files, progress.newChild(1));
             }
         }
     }
 
-    private void processRepoBundles(RepositoryPlugin bndRepo, List<String> bsns, RepositoryImpl bindex, List<Resource> resources, IProgressMonitor monitor) throws Exception {
+    private void processRepoBundles(RepositoryPlugin bndRepo, List<String> bsns, List<File> files, IProgressMonitor monitor) throws Exception {
         SubMonitor progress = SubMonitor.convert(monitor, bsns.size());
         for (String bsn : bsns) {
             List<Version> versions = bndRepo.versions(bsn);
             if (versions != null) {
-                processRepoVersions(bndRepo, bsn, versions, bindex, resources, progress.newChild(1));
+                processRepoVersions(bndRepo, bsn, versions, files, progress.newChild(1));
             }
         }
     }
 
 
-    private void processRepoVersions(RepositoryPlugin bndRepo, String bsn, List<Version> versions, RepositoryImpl bindex, List<Resource> resources, SubMonitor monitor) {
+    private void processRepoVersions(RepositoryPlugin bndRepo, String bsn, List<Version> versions, List<File> files, SubMonitor monitor) {
         SubMonitor progress = SubMonitor.convert(monitor, versions.size());
         for (Version version : versions) {
             try {
                 File bundleFile = bndRepo.get(bsn, version.toString(), Strategy.HIGHEST, null);
-                BundleInfo info = new BundleInfo(bindex, bundleFile);
-                ResourceImpl resource = info.build();
-                if (isValidRuntimeBundle(resource)) {
-                    resource.setURL(bundleFile.toURI().toURL());
-                    resource.addCategory(CATEGORY);
-                    resources.add(resource);
-                }
+                if (bundleFile != null)
+                    files.add(bundleFile);
             } catch (Exception e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
@@ -74,6 +167,46 @@ public class LocalRepositoryIndexer extends AbstractIndexer {
         }
     }
 
+    /**
+     * Take the resources of unchanged files from the cache, and analyse the
+     * remaining files in parallel.
+     */
+    private void processFiles(List<File> files, RepositoryImpl bindex, List<Resource> resources, IProgressMonitor monitor) throws Exception {
+        Resource[] fileResources = new Resource[files.size()];
+        List<Integer> changed = new ArrayList<Integer>();
+        List<File> changedFiles = new ArrayList<File>();
+        for (int i = 0; i < fileResources.length; i++) {
+            File bundleFile = files.get(i);
+            try {
+                fileResources[i] = cache.get(bundleFile);
+            } catch (IOException e) {
+                fileResources[i] = null;
+            }
+            if (fileResources[i] == null) {
+                changed.add(i);
+                changedFiles.add(bundleFile);
+            }
+        }
+
+        List<ResourceImpl> analysed = analyseBundles(bindex, changedFiles, monitor);
+        for (int i = 0; i < analysed.size(); i++) {
+            ResourceImpl resource = analysed.get(i);
+            if (resource != null) {
+                File bundleFile = changedFiles.get(i);
+                resource.setURL(bundleFile.toURI().toURL());
+                resource.addCategory(CATEGORY);
+                cache.put(bundleFile, resource);
+                fileResources[changed.get(i)] = resource;
+            }
+        }
+
+        for (Resource resource : fileResources) {
+            if (resource != null && isValidRuntimeBundle(resource)) {
+                resources.add(resource);
+            }
+        }
+    }
+
     @Override
     protected String getTaskLabel() {
         return "Indexing local repository";
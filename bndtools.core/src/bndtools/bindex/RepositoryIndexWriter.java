@@ -0,0 +1,108 @@
+package bndtools.bindex;
+
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.codehaus.stax2.XMLStreamWriter2;
+import org.osgi.impl.bundle.obr.resource.ResourceImpl;
+import org.osgi.impl.bundle.obr.resource.Tag;
+import org.osgi.service.obr.Resource;
+
+import com.ctc.wstx.stax.WstxOutputFactory;
+
+/**
+ * Writes an OBR repository index one resource at a time, so that the XML of
+ * the whole repository is never held in memory. Resources restored from the
+ * {@link ResourceFragmentCache} are written out as their cached XML.
+ */
+class RepositoryIndexWriter {
+
+    private static final String ENCODING = "UTF-8";
+    private static final String INDENT = "  ";
+
+    private final XMLStreamWriter2 writer;
+
+    RepositoryIndexWriter(OutputStream out) throws XMLStreamException {
+        this.writer = (XMLStreamWriter2) new WstxOutputFactory().createXMLStreamWriter(out, ENCODING);
+    }
+
+    private RepositoryIndexWriter(XMLStreamWriter2 writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Returns the XML of a single resource, as written inside the repository
+     * element.
+     */
+    static String toFragment(Resource resource) throws XMLStreamException {
+        StringWriter buffer = new StringWriter();
+        RepositoryIndexWriter fragmentWriter = new RepositoryIndexWriter((XMLStreamWriter2) new WstxOutputFactory().createXMLStreamWriter(buffer));
+        fragmentWriter.writeTag(ResourceImpl.toXML(resource), 1);
+        fragmentWriter.writer.close();
+        return buffer.toString();
+    }
+
+    void startRepository(String name, Date lastModified) throws XMLStreamException {
+        writer.writeStartDocument(ENCODING, "1.0");
+        writer.writeCharacters("\n");
+        writer.writeStartElement("repository");
+        writer.writeAttribute("lastmodified", formatLastModified(lastModified));
+        writer.writeAttribute("name", name);
+    }
+
+    /**
+     * Returns the lastmodified attribute of the repository element, in the
+     * same format as {@code Tag.addAttribute(String, Date)}.
+     */
+    static String formatLastModified(Date lastModified) {
+        return new SimpleDateFormat("yyyyMMddhhmmss.SSS").format(lastModified);
+    }
+
+    void writeResource(Resource resource) throws XMLStreamException {
+        if (resource instanceof CachedResource)
+            writer.writeRaw(((CachedResource) resource).getFragment());
+        else
+            writeTag(ResourceImpl.toXML(resource), 1);
+    }
+
+    void endRepository() throws XMLStreamException {
+        writer.writeCharacters("\n");
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+        writer.writeEndDocument();
+        writer.close();
+    }
+
+    private void writeTag(Tag tag, int depth) throws XMLStreamException {
+        writeIndent(depth);
+        writer.writeStartElement(tag.getName());
+        for (Object o : tag.getAttributes().entrySet()) {
+            Map.Entry<?, ?> attribute = (Map.Entry<?, ?>) o;
+            writer.writeAttribute(String.valueOf(attribute.getKey()), String.valueOf(attribute.getValue()));
+        }
+        boolean children = false;
+        for (Object content : tag.getContents()) {
+            if (content instanceof Tag) {
+                writeTag((Tag) content, depth + 1);
+                children = true;
+            } else if (content != null) {
+                writer.writeCharacters(content.toString());
+            }
+        }
+        if (children)
+            writeIndent(depth);
+        writer.writeEndElement();
+    }
+
+    private void writeIndent(int depth) throws XMLStreamException {
+        StringBuilder indent = new StringBuilder("\n");
+        for (int i = 0; i < depth; i++)
+            indent.append(INDENT);
+        writer.writeCharacters(indent.toString());
+    }
+}
@@ -0,0 +1,211 @@
+package bndtools.bindex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.osgi.service.obr.Resource;
+
+import bndtools.utils.DigestUtils;
+
+/**
+ * Persists the OBR resource XML generated for each bundle file, so that
+ * re-indexing a repository only needs to analyse the files that are new or
+ * have changed since the previous run.
+ * <p>
+ * Entries are keyed by the absolute path of the bundle and validated first
+ * against its size and timestamp and, if those differ, against the SHA-1 of
+ * its contents. Only the entries that were used during the current run are
+ * written back by {@link #save()}, so files that have been removed from the
+ * repository are dropped from the cache.
+ */
+public class ResourceFragmentCache {
+
+    /** Changed whenever the file format or the generated XML changes. */
+    private static final int FORMAT = 2;
+
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Map<String, Entry> used = new HashMap<String, Entry>();
+
+    private int hits = 0;
+    private int misses = 0;
+
+    public ResourceFragmentCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the entries saved by a previous run. A missing, corrupt or
+     * outdated cache file is treated as empty.
+     */
+    public synchronized void load() {
+        entries.clear();
+        used.clear();
+        if (!file.isFile())
+            return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != FORMAT)
+                    return;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readUTF(), in.readUTF(), readString(in));
+                    entries.put(entry.path, entry);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Write back the entries that were looked up or stored since the cache
+     * was loaded.
+     */
+    public synchronized void save() throws IOException {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(FORMAT);
+            out.writeInt(used.size());
+            for (Entry entry : used.values()) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeUTF(entry.sha1);
+                out.writeUTF(entry.bsn);
+                writeString(out, entry.fragment);
+            }
+        } finally {
+            out.close();
+        }
+        file.delete();
+        if (!temp.renameTo(file))
+            throw new IOException("Unable to save resource cache " + file);
+    }
+
+    /**
+     * Returns the cached resource for the bundle file, or {@code null} if the
+     * file is not in the cache or its contents have changed.
+     */
+    public synchronized Resource get(File bundleFile) throws IOException {
+        String path = bundleFile.getAbsolutePath();
+        Entry entry = used.get(path);
+        if (entry == null)
+            entry = entries.get(path);
+        if (entry != null) {
+            long size = bundleFile.length();
+            long lastModified = bundleFile.lastModified();
+            if (entry.size != size || entry.lastModified != lastModified) {
+                if (entry.sha1.equals(DigestUtils.digestContents(bundleFile)))
+                    entry = new Entry(path, size, lastModified, entry.sha1, entry.bsn, entry.fragment);
+                else
+                    entry = null;
+            }
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        used.put(path, entry);
+        return new CachedResource(entry.bsn.length() == 0 ? null : entry.bsn, bundleFile.toURI().toURL(), entry.fragment);
+    }
+
+    /**
+     * Store the XML of a freshly analysed resource for the bundle file.
+     */
+    public synchronized void put(File bundleFile, Resource resource) throws IOException, XMLStreamException {
+        String fragment = RepositoryIndexWriter.toFragment(resource);
+        String path = bundleFile.getAbsolutePath();
+        String bsn = resource.getSymbolicName();
+        used.put(path, new Entry(path, bundleFile.length(), bundleFile.lastModified(), DigestUtils.digestContents(bundleFile), bsn != null ? bsn : "", fragment));
+    }
+
+    /**
+     * Forget the bundle file, e.g. because it has been deleted.
+     *
+     * @return whether the file was in the cache.
+     */
+    public synchronized boolean remove(File bundleFile) {
+        String path = bundleFile.getAbsolutePath();
+        boolean removed = entries.remove(path) != null;
+        removed |= used.remove(path) != null;
+        return removed;
+    }
+
+    /**
+     * Returns the resources of all the files in the cache, and marks them all
+     * as used so that they are kept by {@link #save()}.
+     */
+    public synchronized List<Resource> getAll() throws IOException {
+        entries.putAll(used);
+        used.clear();
+        used.putAll(entries);
+
+        List<Resource> result = new ArrayList<Resource>(used.size());
+        for (Entry entry : used.values()) {
+            result.add(new CachedResource(entry.bsn.length() == 0 ? null : entry.bsn, new File(entry.path).toURI().toURL(), entry.fragment));
+        }
+        return result;
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty() && used.isEmpty();
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    // writeUTF is limited to 64KB, which large bundles can exceed
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static class Entry {
+        final String path;
+        final long size;
+        final long lastModified;
+        final String sha1;
+        final String bsn;
+        final String fragment;
+
+        Entry(String path, long size, long lastModified, String sha1, String bsn, String fragment) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha1 = sha1;
+            this.bsn = bsn;
+            this.fragment = fragment;
+        }
+    }
+}
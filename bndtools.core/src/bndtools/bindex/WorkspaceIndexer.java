@@ -1,19 +1,20 @@
 package bndtools.bindex;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.SubMonitor;
-import org.osgi.impl.bundle.obr.resource.BundleInfo;
 import org.osgi.impl.bundle.obr.resource.RepositoryImpl;
 import org.osgi.impl.bundle.obr.resource.ResourceImpl;
 import org.osgi.service.obr.Resource;
 
 import aQute.bnd.build.Project;
-import aQute.lib.osgi.Builder;
 import bndtools.Central;
+import bndtools.builder.SubBundleDescriptor;
+import bndtools.builder.SubBundleDescriptors;
 
 public class WorkspaceIndexer extends AbstractIndexer {
 
@@ -30,8 +31,20 @@ public class WorkspaceIndexer extends AbstractIndexer {
 
     @Override
     protected void generateResources(RepositoryImpl bindex, List<Resource> result, IProgressMonitor monitor) throws Exception {
+        SubMonitor progress = SubMonitor.convert(monitor, 2);
         Collection<Project> projects = Central.getWorkspace().getAllProjects();
-        processProjects(projects, bindex, result, monitor);
+        List<File> files = new ArrayList<File>();
+        processProjects(projects, files, progress.newChild(1));
+
+        List<ResourceImpl> resources = analyseBundles(bindex, files, progress.newChild(1));
+        for (int i = 0; i < resources.size(); i++) {
+            ResourceImpl resource = resources.get(i);
+            if (resource != null && isValidRuntimeBundle(resource)) {
+                resource.setURL(files.get(i).toURI().toURL());
+                resource.addCategory(category);
+                result.add(resource);
+            }
+        }
     }
 
 
@@ -40,25 +53,11 @@ public class WorkspaceIndexer extends AbstractIndexer {
         return category;
     }
 
-    private void processProjects(Collection<Project> projects, RepositoryImpl bindex, List<Resource> resources, IProgressMonitor monitor) throws Exception {
+    private void processProjects(Collection<Project> projects, List<File> files, IProgressMonitor monitor) throws Exception {
         SubMonitor progress = SubMonitor.convert(monitor, projects.size());
         for (Project project : projects) {
-            Collection<? extends Builder> builders = project.getSubBuilders();
-            processProjectBuilders(project, builders, bindex, resources, progress.newChild(1));
-        }
-    }
-
-    private void processProjectBuilders(Project project, Collection<? extends Builder> builders, RepositoryImpl bindex, List<Resource> resources, IProgressMonitor monitor) throws Exception {
-        SubMonitor progress = SubMonitor.convert(monitor, builders.size());
-        for (Builder builder : builders) {
-            File bundleFile = new File(project.getTarget(), builder.getBsn() + ".jar");
-            BundleInfo info = new BundleInfo(bindex, bundleFile);
-            ResourceImpl resource = info.build();
-            if (isValidRuntimeBundle(resource)) {
-                resource.setURL(bundleFile.toURI().toURL());
-
-                resource.addCategory(category);
-                resources.add(resource);
+            for (SubBundleDescriptor subBundle : SubBundleDescriptors.getDescriptors(project)) {
+                files.add(subBundle.getOutputFile());
             }
             progress.worked(1);
         }
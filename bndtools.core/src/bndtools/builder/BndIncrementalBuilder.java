@@ -13,6 +13,9 @@ package bndtools.builder;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -21,36 +24,33 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceProxy;
 import org.eclipse.core.resources.IResourceProxyVisitor;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
-import org.eclipse.core.resources.ResourcesPlugin;
-import org.eclipse.core.resources.WorkspaceJob;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubMonitor;
-import org.eclipse.jdt.core.IClasspathContainer;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jface.preference.IPreferenceStore;
 
 import aQute.bnd.build.Container;
 import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
 import aQute.lib.osgi.Builder;
 import bndtools.Plugin;
 import bndtools.RepositoryIndexerJob;
-import bndtools.classpath.BndContainer;
 import bndtools.classpath.BndContainerInitializer;
 import bndtools.utils.FileUtils;
 import bndtools.utils.ResourceDeltaAccumulator;
@@ -62,29 +62,77 @@ public class BndIncrementalBuilder extends IncrementalProjectBuilder {
 	public static final String MARKER_BND_CLASSPATH_PROBLEM = Plugin.PLUGIN_ID + ".bnd_classpath_problem";
 
 	private static final String BND_SUFFIX = ".bnd";
+	private static final String JAVA_SUFFIX = ".java";
+
+	/** Marker attribute recording the sub-bundle that reported a problem. */
+	static final String MARKER_ATTR_BSN = "bsn";
+
+	private static final String BUILDFILES = "buildfiles";
 
 	private static final long NEVER = -1;
+	private static final int DEFAULT_BUILD_CACHE_SIZE_MB = 512;
 
 	private final Map<String, Long> projectLastBuildTimes = new HashMap<String, Long>();
-	private final Map<File, Container> bndsToDeliverables = new HashMap<File, Container>();
+	private final Map<File, Container> bndsToDeliverables = new ConcurrentHashMap<File, Container>();
+
+	/** Timings of the build in progress. */
+	private BuildRecord record;
 
 	@Override protected IProject[] build(int kind, @SuppressWarnings("rawtypes") Map args, IProgressMonitor monitor)
 			throws CoreException {
 
         IProject project = getProject();
+		record = new BuildRecord(project.getName());
 
 		ensureBndBndExists(project);
 
-		if (getLastBuildTime(project) == -1 || kind == FULL_BUILD) {
-			rebuildBndProject(project, monitor);
-		} else {
-			IResourceDelta delta = getDelta(project);
-			if(delta == null)
+		BuildStateStore buildState = Plugin.getDefault().getBuildStateStore();
+		Project model = Plugin.getDefault().getCentral().getModel(JavaCore.create(project));
+
+		// On the first build in this session, the state persisted by the
+		// previous session tells us whether the inputs have changed since.
+		boolean firstBuild = getLastBuildTime(project) == NEVER;
+		long start = System.nanoTime();
+		boolean persistedStateValid = firstBuild && model != null && buildState.isUpToDate(project, model);
+		if (firstBuild)
+			record.phase("check build state", start);
+
+		boolean built = true;
+		try {
+			if (kind == FULL_BUILD) {
+				record.setDecision(BuildRecord.KIND_FULL, "full build requested");
 				rebuildBndProject(project, monitor);
-			else
-				incrementalRebuild(delta, project, monitor);
+			} else if (firstBuild && !persistedStateValid) {
+				record.setDecision(BuildRecord.KIND_FULL, "inputs changed since the last session");
+				rebuildBndProject(project, monitor);
+			} else {
+				IResourceDelta delta = getDelta(project);
+				if (delta != null) {
+					built = incrementalRebuild(delta, project, monitor);
+				} else if (!persistedStateValid) {
+					record.setDecision(BuildRecord.KIND_FULL, "no resource delta available");
+					rebuildBndProject(project, monitor);
+				} else {
+					record.setDecision(BuildRecord.KIND_SKIPPED, "build state of the last session is up to date");
+				}
+			}
+			if (built) {
+				setLastBuildTime(project, System.currentTimeMillis());
+				if (model != null) {
+					start = System.nanoTime();
+					buildState.markBuilt(project, model);
+					record.phase("record build state", start);
+				}
+			} else {
+				// Rebuild fully next time, which also clears the problem marker
+				projectLastBuildTimes.remove(project.getName());
+				buildState.discard(project);
+			}
+		} finally {
+			record.finish();
+			Plugin.getDefault().getBuildMetrics().add(record);
+			record = null;
 		}
-		setLastBuildTime(project, System.currentTimeMillis());
 		RepositoryIndexerJob.runIfNeeded();
 		return new IProject[]{ project.getWorkspace().getRoot().getProject(Project.BNDCNF)};
 	}
@@ -125,6 +173,9 @@ public class BndIncrementalBuilder extends IncrementalProjectBuilder {
 		getProject().deleteMarkers(MARKER_BND_PROBLEM, true,
 				IResource.DEPTH_INFINITE);
 
+		// Forget the persisted build state
+		Plugin.getDefault().getBuildStateStore().discard(getProject());
+
 		// Delete target files
 		Project model = Plugin.getDefault().getCentral().getModel(JavaCore.create(getProject()));
 		try {
@@ -133,100 +184,281 @@ public class BndIncrementalBuilder extends IncrementalProjectBuilder {
 			throw new CoreException(new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, "Error cleaning project outputs.", e));
 		}
 	}
-	void incrementalRebuild(IResourceDelta delta, IProject project, IProgressMonitor monitor) {
+	/**
+	 * Rebuild the bundles affected by the delta.
+	 *
+	 * @return whether the build completed; if not, the error has been logged
+	 *         and reported on the bnd file.
+	 */
+	boolean incrementalRebuild(IResourceDelta delta, IProject project, IProgressMonitor monitor) {
 		SubMonitor progress = SubMonitor.convert(monitor);
 		Project model = Plugin.getDefault().getCentral().getModel(JavaCore.create(project));
         if (model == null) {
             // Don't try to build... no bnd workspace configured
             Plugin.log(new Status(IStatus.WARNING, Plugin.PLUGIN_ID, 0, MessageFormat.format("Unable to run Bnd on project {0}: Bnd workspace not configured.",
                     project.getName()), null));
-            return;
+            return false;
         }
 
+		boolean built = true;
+		SubBuilders subBuilders = null;
 		try {
+			boolean selective = isBuildAffectedSubBundlesOnly();
+
             List<File> affectedFiles = new ArrayList<File>();
             final File targetDir = model.getTarget();
-            final File output = model.getOutput();
+            // In selective mode, changed class files in the output folder are
+            // needed to route changes to the sub-bundles that include them.
+            final File output = selective ? null : model.getOutput();
             FileFilter generatedFilter = new FileFilter() {
                 public boolean accept(File pathname) {
-                    return !FileUtils.isAncestor(targetDir, pathname) && !FileUtils.isAncestor(output, pathname);
+                    return !FileUtils.isAncestor(targetDir, pathname) && (output == null || !FileUtils.isAncestor(output, pathname));
                 }
 			};
+			long start = System.nanoTime();
 			ResourceDeltaAccumulator visitor = new ResourceDeltaAccumulator(IResourceDelta.ADDED | IResourceDelta.CHANGED | IResourceDelta.REMOVED, affectedFiles, generatedFilter);
 			delta.accept(visitor);
+			start = record.phase("collect delta", start);
 
 			progress.setWorkRemaining(affectedFiles.size() + 10);
 
-			boolean rebuild = false;
+			boolean rebuildAll = false;
+			boolean bndChanged = false;
 			List<File> deletedBnds = new LinkedList<File>();
 
 			File srcDir = model.getSrc();
-			
+			File projectBndFile = model.getPropertiesFile();
+			SubBundleRouter router = null;
+
 			// Check if any affected file is a bnd file
 			for (File file : affectedFiles) {
 				if(file.getName().toLowerCase().endsWith(BND_SUFFIX)) {
-					rebuild = true;
 					int deltaKind = visitor.queryDeltaKind(file);
 					if((deltaKind & IResourceDelta.REMOVED) > 0) {
 						deletedBnds.add(file);
 					}
+					// In selective mode, an edit to a sub-bundle descriptor
+					// only affects the corresponding sub-bundle. Any other bnd
+					// file may be included by several bundles.
+					if (selective && deltaKind == IResourceDelta.CHANGED && !file.equals(projectBndFile)) {
+						if (router == null) {
+							subBuilders = new SubBuilders(model);
+							router = new SubBundleRouter(subBuilders.getBuilders());
+						}
+						if (router.isSubBundleFile(file))
+							continue;
+					}
+					rebuildAll = true;
+					bndChanged = true;
+					record.setDecision(BuildRecord.KIND_FULL, "bnd file changed: " + file.getName());
 					break;
 				}
-				// Check if source file was changed instead of class file
-				if (FileUtils.isAncestor(srcDir, file)) {
-				    rebuild = true;
+				// Check if source file was changed instead of class file. In
+				// selective mode Java sources are ignored because their class
+				// files are routed to the sub-bundles.
+				if (FileUtils.isAncestor(srcDir, file) && (!selective || !file.getName().endsWith(JAVA_SUFFIX))) {
+				    rebuildAll = true;
+				    record.setDecision(BuildRecord.KIND_FULL, "source resource changed: " + file.getName());
 				    break;
 				}
 			}
-			if(!rebuild && !affectedFiles.isEmpty()) {
-				// Check if any of the affected files are members of bundles built by a sub builder
-                Collection<? extends Builder> builders = model.getSubBuilders();
-				for (Builder builder : builders) {
-					File buildPropsFile = builder.getPropertiesFile();
-					if(affectedFiles.contains(buildPropsFile)) {
-						rebuild = true;
-						break;
-					} else if(builder.isInScope(affectedFiles)) {
-						rebuild = true;
-
-                        // Delete the bundle if any contained resource was
-                        // deleted... to force rebuild
-                        for (File file : affectedFiles) {
-                            if ((IResourceDelta.REMOVED & visitor.queryDeltaKind(file)) > 0) {
-                                String bsn = builder.getBsn();
-                                File f = new File(model.getTarget(), bsn + ".jar");
-                                try {
-                                    if (f.isFile()) f.delete();
-                                } catch (Exception e) {
-                                    Plugin.logError("Error deleting file: " + f.getAbsolutePath(), e);
-                                }
-                            }
-                        }
-
-						break;
+
+			List<Builder> affectedBuilders = new LinkedList<Builder>();
+			if(!rebuildAll && !affectedFiles.isEmpty()) {
+				// Route the affected files to the sub-bundles that include them
+				if (router == null) {
+					subBuilders = new SubBuilders(model);
+					router = new SubBundleRouter(subBuilders.getBuilders());
+				}
+				for (Entry<Builder, List<File>> route : router.route(affectedFiles).entrySet()) {
+					Builder builder = route.getKey();
+					affectedBuilders.add(builder);
+
+					// Delete the bundle if any contained resource was
+					// deleted... to force rebuild
+					for (File file : route.getValue()) {
+						if ((IResourceDelta.REMOVED & visitor.queryDeltaKind(file)) > 0) {
+							File f = new File(model.getTarget(), builder.getBsn() + ".jar");
+							try {
+								if (f.isFile()) f.delete();
+							} catch (Exception e) {
+								Plugin.logError("Error deleting file: " + f.getAbsolutePath(), e);
+							}
+							break;
+						}
 					}
-					progress.worked(1);
 				}
+				progress.worked(affectedFiles.size());
+				record.phase("route delta", start);
 			}
 
 			// Delete corresponding bundles for deleted Bnds
 			for (File bndFile : deletedBnds) {
-				Container container = bndsToDeliverables.get(bndFile);
+				Container container = bndsToDeliverables.remove(bndFile);
 				if(container != null) {
 					IResource resource = FileUtils.toWorkspaceResource(container.getFile());
 					resource.delete(false, null);
 				}
 			}
 
-			if(rebuild)
-				rebuildBndProject(project, monitor);
+			if(rebuildAll || (!selective && !affectedBuilders.isEmpty())) {
+				if (!rebuildAll)
+					record.setDecision(BuildRecord.KIND_FULL, "bundle contents changed");
+				rebuildBndProject(project, bndChanged, monitor);
+			} else if (!affectedBuilders.isEmpty()) {
+				record.setDecision(BuildRecord.KIND_INCREMENTAL, affectedBuilders.size() + " sub-bundle(s) affected");
+				rebuildSubBundles(project, model, affectedBuilders, progress.newChild(10));
+			} else {
+				record.setDecision(BuildRecord.KIND_SKIPPED, "no bundle affected by " + affectedFiles.size() + " changed file(s)");
+			}
 		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			Plugin.logError("Error building project " + project.getName(), e);
+			reportError(project, MessageFormat.format("Error building project {0}: {1}", project.getName(), e.getMessage()));
+			built = false;
+		} finally {
+			if (subBuilders != null)
+				subBuilders.close();
 		}
 		model.refresh();
+		return built;
+	}
+	private static void reportError(IProject project, String message) {
+		PostBuildUpdate update = new PostBuildUpdate(project, project.getFile(Project.BNDFILE));
+		update.addError(message, null);
+		try {
+			update.apply(null);
+		} catch (CoreException e) {
+			Plugin.logError("Error reporting build problem on project " + project.getName(), e);
+		}
+	}
+	/**
+	 * Rebuild and rewrite only the specified sub-bundles of the project,
+	 * leaving the deliverables of all other sub-bundles untouched. The set of
+	 * sub-bundles must not have changed since the last full build.
+	 */
+	void rebuildSubBundles(IProject project, Project model, Collection<? extends Builder> builders, IProgressMonitor monitor) throws Exception {
+		SubMonitor progress = SubMonitor.convert(monitor, 2);
+		PostBuildUpdate update = new PostBuildUpdate(project, project.getFile(Project.BNDFILE));
+
+		model.setChanged();
+
+		long start = System.nanoTime();
+		List<SubBundleBuild> subBuilds = SubBundleBuild.runAll(SubBundleBuild.create(model, builders), getBuildParallelism());
+		start = record.phase("build bundles", start);
+		progress.worked(1);
+
+		for (SubBundleBuild subBuild : subBuilds) {
+			bndsToDeliverables.put(subBuild.getPropertiesFile(), new Container(model, subBuild.getDeliverable()));
+
+			// Replace the markers from the previous build of this sub-bundle
+			// and refresh the deliverable if it was rewritten
+			update.clearMarkers(subBuild.getBsn());
+			update.addSubBundle(subBuild);
+			record.addSubBundle(subBuild);
+		}
+		update.apply(progress.newChild(1));
+		record.phase("update workspace", start);
+	}
+	private static boolean isBuildAffectedSubBundlesOnly() {
+		return Plugin.getDefault().getPreferenceStore().getBoolean(Plugin.PREF_BUILD_AFFECTED_SUB_BUNDLES_ONLY);
+	}
+	/**
+	 * Returns whether full builds build each sub-bundle through
+	 * {@link SubBundleBuild}, which skips rewriting unchanged bundles, rather
+	 * than through {@link Project#build()}. This is the default; parallel
+	 * building and the build cache also require it.
+	 */
+	private static boolean isSubBundleBuildEnabled() {
+		IPreferenceStore store = Plugin.getDefault().getPreferenceStore();
+		return !store.getBoolean(Plugin.PREF_REWRITE_UNCHANGED_BUNDLES) || store.getBoolean(Plugin.PREF_PARALLEL_SUB_BUNDLE_BUILD) || store.getBoolean(Plugin.PREF_BUILD_CACHE);
+	}
+	/**
+	 * Returns the number of threads to use for building the sub-bundles of a
+	 * project, or 1 if parallel building is disabled.
+	 */
+	static int getBuildParallelism() {
+		IPreferenceStore store = Plugin.getDefault().getPreferenceStore();
+		if (!store.getBoolean(Plugin.PREF_PARALLEL_SUB_BUNDLE_BUILD))
+			return 1;
+		int threads = store.getInt(Plugin.PREF_BUILD_THREADS);
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+	/**
+	 * Returns the build cache to use for the project's bundles, or null if
+	 * the build cache is disabled. By default the cache is kept in
+	 * {@code cnf/cache/build} of the bnd workspace.
+	 */
+	static BuildCache getBuildCache(Project model) {
+		IPreferenceStore store = Plugin.getDefault().getPreferenceStore();
+		if (!store.getBoolean(Plugin.PREF_BUILD_CACHE))
+			return null;
+
+		File dir;
+		String dirPref = store.getString(Plugin.PREF_BUILD_CACHE_DIR);
+		if (dirPref != null && dirPref.trim().length() > 0)
+			dir = new File(dirPref.trim());
+		else
+			dir = new File(new File(model.getWorkspace().getBase(), Workspace.CNFDIR), Workspace.CACHEDIR + "/build");
+
+		int sizeMb = store.getInt(Plugin.PREF_BUILD_CACHE_SIZE);
+		if (sizeMb <= 0)
+			sizeMb = DEFAULT_BUILD_CACHE_SIZE_MB;
+		return BuildCache.getCache(dir, sizeMb * 1024L * 1024L);
+	}
+	/**
+	 * Returns the maximum number of bnd projects to build concurrently when
+	 * building several projects at once.
+	 */
+	static int getProjectBuildParallelism() {
+		int threads = Plugin.getDefault().getPreferenceStore().getInt(Plugin.PREF_BUILD_THREADS);
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+	/**
+	 * Write the list of deliverables in the format that bnd uses to find the
+	 * outputs of a project without rebuilding it; or delete the list if any
+	 * of the deliverables was not written. The file is left untouched if its
+	 * content would not change.
+	 */
+	static void writeBuildFiles(Project model, File target, List<SubBundleBuild> subBuilds, PostBuildUpdate update) throws Exception {
+		File buildFiles = new File(target, BUILDFILES);
+		StringBuilder content = new StringBuilder();
+		for (SubBundleBuild subBuild : subBuilds) {
+			if (!subBuild.isWritten()) {
+				if (buildFiles.delete())
+					update.refresh(buildFiles);
+				return;
+			}
+			content.append(subBuild.getDeliverable().getAbsolutePath()).append("\n");
+		}
+		if (buildFiles.isFile()) {
+			InputStream in = new FileInputStream(buildFiles);
+			try {
+				if (content.toString().equals(new String(FileUtils.readFully(in))))
+					return;
+			} finally {
+				in.close();
+			}
+		}
+		FileWriter writer = new FileWriter(buildFiles);
+		try {
+			writer.append(content);
+		} finally {
+			writer.close();
+		}
+		model.getWorkspace().changedFile(buildFiles);
+		update.refresh(buildFiles);
 	}
 	void rebuildBndProject(IProject project, IProgressMonitor monitor) throws CoreException {
+		rebuildBndProject(project, true, monitor);
+	}
+	/**
+	 * Rebuild all sub-bundles of the project. Unless disabled by preference,
+	 * deliverables whose content has not changed are not rewritten. Markers, refreshes of the rewritten files
+	 * and deletion of stale bundles are applied afterwards in a single
+	 * workspace operation. The classpath container is only recalculated if
+	 * {@code updateClasspath} is set, i.e. if the bnd files may have changed.
+	 */
+	void rebuildBndProject(IProject project, boolean updateClasspath, IProgressMonitor monitor) throws CoreException {
 		SubMonitor progress = SubMonitor.convert(monitor, 2);
 		IJavaProject javaProject = JavaCore.create(project);
 
@@ -238,74 +470,114 @@ public class BndIncrementalBuilder extends IncrementalProjectBuilder {
             return;
         }
 
+		long start = System.nanoTime();
 		model.refresh();
 		model.setChanged();
+		start = record.phase("model refresh", start);
 
-		// Get or create the build model for this bnd file
-		IFile bndFile = project.getFile(Project.BNDFILE);
+		PostBuildUpdate update = new PostBuildUpdate(project, project.getFile(Project.BNDFILE));
+		update.clearMarkers();
 
-		// Clear markers
-		if (bndFile.exists()) {
-			bndFile.deleteMarkers(MARKER_BND_PROBLEM, true, IResource.DEPTH_INFINITE);
+		// Update classpath
+		if (updateClasspath) {
+			BndContainerInitializer.updateClasspathContainer(javaProject, BndContainerInitializer.calculateEntries(model));
+			start = record.phase("classpath", start);
 		}
 
-		// Update classpath
-		JavaCore.setClasspathContainer(BndContainerInitializer.ID, new IJavaProject[] { javaProject } , new IClasspathContainer[] { new BndContainer(javaProject, BndContainerInitializer.calculateEntries(model)) }, null);
+		// Build, unless the project opts out with -nobundles
+		bndsToDeliverables.clear();
+		if (!SubBuilders.isNoBundles(model)) {
+			try {
+				if (isSubBundleBuildEnabled())
+					start = buildSubBundles(model, update, start);
+				else
+					start = buildProject(model, update, start);
+			} catch (Exception e) {
+				throw new CoreException(new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, "Error building project.", e));
+			}
+		}
+		progress.worked(1);
+
+		// Report errors
+		for (String errorMessage : model.getErrors()) {
+			update.addError(errorMessage, null);
+		}
+		model.clear();
 
-		// Build
+		update.apply(progress.newChild(1));
+		record.phase("update workspace", start);
+	}
+	private long buildSubBundles(Project model, PostBuildUpdate update, long start) throws Exception {
+		SubBuilders subBuilders = new SubBuilders(model);
 		try {
-		    final Set<File> deliverableJars = new HashSet<File>();
-			bndsToDeliverables.clear();
-            Collection<? extends Builder> builders = model.getSubBuilders();
+		    Set<File> deliverableJars = new HashSet<File>();
+            Collection<? extends Builder> builders = subBuilders.getBuilders();
 			for (Builder builder : builders) {
 				File subBndFile = builder.getPropertiesFile();
-				String bsn = builder.getBsn();
-				Container deliverable = model.getDeliverable(bsn, null);
+				Container deliverable = new Container(model, new File(model.getTarget(), builder.getBsn() + ".jar"));
 				bndsToDeliverables.put(subBndFile, deliverable);
 				deliverableJars.add(deliverable.getFile());
 			}
 
-			model.build();
-			progress.worked(1);
+			List<SubBundleBuild> subBuilds = SubBundleBuild.runAll(SubBundleBuild.create(model, builders), getBuildParallelism());
+			writeBuildFiles(model, model.getTarget(), subBuilds, update);
+			start = record.phase("build bundles", start);
 
-			File targetDir = model.getTarget();
-			IContainer target = ResourcesPlugin.getWorkspace().getRoot().getContainerForLocation(new Path(targetDir.getAbsolutePath()));
-			target.refreshLocal(IResource.DEPTH_INFINITE, null);
+			for (SubBundleBuild subBuild : subBuilds) {
+				update.addSubBundle(subBuild);
+				record.addSubBundle(subBuild);
+			}
+			deleteStaleJars(model, deliverableJars, update);
 
-			// Clear any JARs in the target directory that have not just been built by Bnd
-			final File[] targetJars = model.getTarget().listFiles(new FileFilter() {
-                public boolean accept(File pathname) {
-                    return pathname.getName().endsWith(".jar");
-                }
-            });
-			WorkspaceJob deleteJob = new WorkspaceJob("delete") {
-                @Override
-                public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException {
-                    SubMonitor progress = SubMonitor.convert(monitor);
-                    for (File targetJar : targetJars) {
-                        if(!deliverableJars.contains(targetJar)) {
-                            IFile wsFile = ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(new Path(targetJar.getAbsolutePath()));
-                            if(wsFile != null && wsFile.exists()) {
-                                wsFile.delete(true, progress.newChild(1));
-                            }
-                        }
-                    }
-                    return Status.OK_STATUS;
-                }
-			};
-			deleteJob.schedule();
-		} catch (Exception e) {
-			throw new CoreException(new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, "Error building project.", e));
+			// Problems reported while setting up the sub-builders
+			subBuilders.reportProblems();
+		} finally {
+			subBuilders.close();
+		}
+		return start;
+	}
+	/**
+	 * Build the project with {@link Project#build()}, which rewrites all
+	 * deliverables. This is only used if unchanged bundles are to be
+	 * rewritten and neither parallel building nor the build cache is enabled.
+	 */
+	private long buildProject(Project model, PostBuildUpdate update, long start) throws Exception {
+		Set<File> deliverableJars = new HashSet<File>();
+		SubBuilders subBuilders = new SubBuilders(model);
+		try {
+			for (Builder builder : subBuilders.getBuilders()) {
+				Container deliverable = new Container(model, new File(model.getTarget(), builder.getBsn() + ".jar"));
+				bndsToDeliverables.put(builder.getPropertiesFile(), deliverable);
+				deliverableJars.add(deliverable.getFile());
+			}
+		} finally {
+			subBuilders.close();
 		}
 
-		// Report errors
-		List<String> errors = new ArrayList<String>(model.getErrors());
-		for (String errorMessage : errors) {
-			IMarker marker = bndFile.createMarker(MARKER_BND_PROBLEM);
-			marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_ERROR);
-			marker.setAttribute(IMarker.MESSAGE, errorMessage);
-			marker.setAttribute(IMarker.LINE_NUMBER, 1);
-			model.clear();
+		model.build();
+		start = record.phase("build bundles", start);
+
+		for (File deliverableJar : deliverableJars) {
+			update.refresh(deliverableJar);
+		}
+		update.refresh(new File(model.getTarget(), BUILDFILES));
+		deleteStaleJars(model, deliverableJars, update);
+		return start;
+	}
+	/**
+	 * Clear any JARs in the target directory that have not just been built by Bnd.
+	 */
+	private static void deleteStaleJars(Project model, Set<File> deliverableJars, PostBuildUpdate update) throws Exception {
+		File[] targetJars = model.getTarget().listFiles(new FileFilter() {
+            public boolean accept(File pathname) {
+                return pathname.getName().endsWith(".jar");
+            }
+        });
+		if (targetJars != null) {
+			for (File targetJar : targetJars) {
+				if (!deliverableJars.contains(targetJar))
+					update.delete(targetJar);
+			}
 		}
 	}
 }
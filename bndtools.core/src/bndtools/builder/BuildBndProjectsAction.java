@@ -0,0 +1,51 @@
+package bndtools.builder;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.ui.IObjectActionDelegate;
+import org.eclipse.ui.IWorkbenchPart;
+
+/**
+ * Regenerates the bundles of the selected bnd projects and their bnd project
+ * dependencies, building independent projects concurrently.
+ */
+public class BuildBndProjectsAction implements IObjectActionDelegate {
+
+    private ISelection selection;
+
+    public void run(IAction action) {
+        List<IProject> projects = new ArrayList<IProject>();
+        if (selection instanceof IStructuredSelection) {
+            for (Iterator<?> it = ((IStructuredSelection) selection).iterator(); it.hasNext();) {
+                Object element = it.next();
+                IProject project = null;
+                if (element instanceof IProject) {
+                    project = (IProject) element;
+                } else if (element instanceof IAdaptable) {
+                    project = (IProject) ((IAdaptable) element).getAdapter(IProject.class);
+                }
+                if (project != null)
+                    projects.add(project);
+            }
+        }
+        if (!projects.isEmpty()) {
+            WorkspaceBuildScheduler job = new WorkspaceBuildScheduler(projects);
+            job.setUser(true);
+            job.schedule();
+        }
+    }
+
+    public void selectionChanged(IAction action, ISelection selection) {
+        this.selection = selection;
+    }
+
+    public void setActivePart(IAction action, IWorkbenchPart targetPart) {
+    }
+}
@@ -0,0 +1,343 @@
+package bndtools.builder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import aQute.lib.osgi.Builder;
+import aQute.lib.osgi.Constants;
+import aQute.lib.osgi.Jar;
+import bndtools.utils.DigestUtils;
+
+/**
+ * A content-addressable cache of built bundles. A bundle is stored under a
+ * key computed from everything that goes into it: the effective properties of
+ * its sub-builder, the contents of the buildpath JARs and classpath folders,
+ * the source folders if {@code -sources} is set, and the files and folders
+ * named in {@code Include-Resource}. File contents are hashed rather than
+ * their paths or timestamps, so a cache folder can be shared by several
+ * workspaces or checkouts of the same code.
+ * <p>
+ * {@code Include-Resource} clauses are resolved the same way as bnd does for
+ * local files and folders. Sources that bnd would obtain from elsewhere, such
+ * as the repositories or a make plugin, are only represented by the text of
+ * the clause, so changes to them are not detected.
+ * <p>
+ * The cache is bounded in size: entries are touched when used and the least
+ * recently used entries are evicted when the total size exceeds the limit.
+ */
+public class BuildCache {
+
+    private static final String SUFFIX = ".jar";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** Changed whenever the way keys are computed changes. */
+    private static final String KEY_FORMAT = "2";
+    private static final String[] INCLUDE_RESOURCE_PROPERTIES = { "Bundle-Includes", Constants.INCLUDERESOURCE, Constants.INCLUDE_RESOURCE };
+
+    private static final Map<File, BuildCache> caches = new ConcurrentHashMap<File, BuildCache>();
+    private static final Map<File, FileDigest> fileDigests = new ConcurrentHashMap<File, FileDigest>();
+
+    private static final AtomicLong hits = new AtomicLong(0);
+    private static final AtomicLong misses = new AtomicLong(0);
+
+    private final File dir;
+    private volatile long maxSize;
+
+    private BuildCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the cache stored in the specified folder, with the specified
+     * maximum size in bytes.
+     */
+    public static synchronized BuildCache getCache(File dir, long maxSize) {
+        BuildCache cache = caches.get(dir);
+        if (cache == null) {
+            cache = new BuildCache(dir);
+            caches.put(dir, cache);
+        }
+        cache.maxSize = maxSize;
+        return cache;
+    }
+
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Compute the cache key of the bundle that the sub-builder will produce.
+     *
+     * @param workspaceBase
+     *            the base folder of the bnd workspace.
+     * @param folderDigests
+     *            digests of classpath and source folders that have already been
+     *            computed during the current build, shared between
+     *            sub-builders.
+     */
+    static String computeKey(Builder builder, File workspaceBase, Map<File, String> folderDigests) throws Exception {
+        MessageDigest digest = DigestUtils.newDigest();
+        DigestUtils.update(digest, KEY_FORMAT);
+
+        // Effective properties, with the absolute locations of the project
+        // and workspace replaced so that keys do not depend on where the
+        // code is checked out
+        String base = builder.getBase().getAbsolutePath();
+        String wsBase = workspaceBase.getAbsolutePath();
+        Properties props = builder.getFlattenedProperties();
+        for (Object key : new TreeSet<Object>(props.keySet())) {
+            String value = props.getProperty((String) key);
+            if (value == null)
+                continue;
+            value = value.replace(base, "${basedir}").replace(wsBase, "${workspace}");
+            DigestUtils.update(digest, (String) key);
+            DigestUtils.update(digest, value);
+        }
+
+        // Classpath JARs and folders
+        for (Jar jar : builder.getClasspath()) {
+            File source = jar.getSource();
+            if (source == null) {
+                DigestUtils.update(digest, jar.getName());
+            } else if (source.isDirectory()) {
+                DigestUtils.update(digest, digestFolder(source, folderDigests));
+            } else {
+                DigestUtils.update(digest, digestFile(source));
+            }
+        }
+
+        // Source folders, which are copied into OSGI-OPT/src
+        if (builder.hasSources()) {
+            for (File folder : builder.getSourcePath()) {
+                DigestUtils.update(digest, digestFolder(folder, folderDigests));
+            }
+        }
+
+        // Resources included from the project
+        String includes = getIncludeResource(builder);
+        if (includes != null) {
+            for (Entry<String, Map<String, String>> clause : builder.parseHeader(includes).entrySet()) {
+                if (clause.getValue().containsKey("literal"))
+                    continue;
+                File file = builder.getFile(getIncludedPath(clause.getKey()));
+                if (file.isDirectory())
+                    DigestUtils.update(digest, digestFolder(file, folderDigests));
+                else if (file.isFile())
+                    DigestUtils.update(digest, digestFile(file));
+            }
+        }
+
+        return DigestUtils.toHex(digest.digest());
+    }
+
+    /**
+     * Returns the resources to include, from the same properties and in the
+     * same order of precedence as bnd.
+     */
+    private static String getIncludeResource(Builder builder) {
+        for (String name : INCLUDE_RESOURCE_PROPERTIES) {
+            String includes = builder.getProperty(name);
+            if (includes != null && includes.length() > 0)
+                return includes;
+        }
+        return null;
+    }
+
+    /**
+     * Copy the cached bundle for the key to the target file, unless the
+     * target already has the same content.
+     *
+     * @return {@code false} if there is no cached bundle for the key.
+     */
+    boolean restore(String key, File target, SubBundleBuild build) throws IOException {
+        File entry = new File(dir, key + SUFFIX);
+        if (!entry.isFile()) {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+
+        // Touch the entry to record its use for LRU eviction
+        String digest = JarDigests.getDigest(entry);
+        entry.setLastModified(System.currentTimeMillis());
+        if (digest != null)
+            JarDigests.record(entry, digest);
+
+        if (digest == null || !digest.equals(JarDigests.getDigest(target))) {
+            target.getParentFile().mkdirs();
+            File temp = new File(target.getParentFile(), target.getName() + TEMP_SUFFIX);
+            copy(entry, temp);
+            target.delete();
+            if (!temp.renameTo(target))
+                throw new IOException("Unable to restore cached bundle to " + target);
+            if (digest != null)
+                JarDigests.record(target, digest);
+            build.setChanged();
+        }
+        return true;
+    }
+
+    /**
+     * Store a copy of a freshly built bundle under the key, then evict the
+     * least recently used entries if the cache has grown too large.
+     */
+    void store(String key, File bundle) throws IOException {
+        File entry = new File(dir, key + SUFFIX);
+        if (entry.isFile())
+            return;
+        dir.mkdirs();
+        // Copy to a temporary file first so that concurrent builds never see
+        // a partially written entry
+        File temp = File.createTempFile(key, TEMP_SUFFIX, dir);
+        try {
+            copy(bundle, temp);
+            if (!temp.renameTo(entry) && !entry.isFile())
+                throw new IOException("Unable to store bundle in build cache: " + entry);
+        } finally {
+            temp.delete();
+        }
+        evict();
+    }
+
+    private synchronized void evict() {
+        File[] entries = dir.listFiles();
+        if (entries == null)
+            return;
+        List<File> jars = new ArrayList<File>(entries.length);
+        long total = 0;
+        for (File entry : entries) {
+            if (entry.getName().endsWith(SUFFIX)) {
+                jars.add(entry);
+                total += entry.length();
+            }
+        }
+        if (total <= maxSize)
+            return;
+
+        Collections.sort(jars, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (File jar : jars) {
+            if (total <= maxSize)
+                break;
+            long length = jar.length();
+            if (jar.delete())
+                total -= length;
+        }
+    }
+
+    /**
+     * Extract the source path from an {@code Include-Resource} clause such as
+     * {@code {target=source}}, {@code @source.jar} or
+     * {@code @source.jar!/path}, following the parsing in {@link Builder}.
+     */
+    static String getIncludedPath(String clause) {
+        String path = clause.trim();
+        // parseHeader marks repeated clauses with a trailing ~
+        while (path.endsWith("~"))
+            path = path.substring(0, path.length() - 1);
+        if (path.startsWith("{") && path.endsWith("}"))
+            path = path.substring(1, path.length() - 1).trim();
+        String[] parts = path.split("\\s*=\\s*");
+        path = parts.length == 2 ? parts[1] : parts[0];
+        if (path.startsWith("@")) {
+            path = path.substring(1);
+            int bang = path.lastIndexOf("!/");
+            if (bang > 0)
+                path = path.substring(0, bang);
+        }
+        return path.trim();
+    }
+
+    private static String digestFolder(File folder, Map<File, String> folderDigests) throws IOException {
+        String result = folderDigests.get(folder);
+        if (result == null) {
+            MessageDigest digest = DigestUtils.newDigest();
+            digestFolder(digest, folder, "");
+            result = DigestUtils.toHex(digest.digest());
+            folderDigests.put(folder, result);
+        }
+        return result;
+    }
+
+    private static void digestFolder(MessageDigest digest, File folder, String prefix) throws IOException {
+        File[] children = folder.listFiles();
+        if (children == null)
+            return;
+        Arrays.sort(children);
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                digestFolder(digest, child, path + "/");
+            } else {
+                DigestUtils.update(digest, path);
+                DigestUtils.update(digest, digestFile(child));
+            }
+        }
+    }
+
+    /**
+     * Returns the SHA-1 of the file contents, cached for as long as the size
+     * and timestamp of the file do not change.
+     */
+    private static String digestFile(File file) throws IOException {
+        FileDigest cached = fileDigests.get(file);
+        if (cached != null && cached.length == file.length() && cached.lastModified == file.lastModified())
+            return cached.digest;
+        FileDigest result = new FileDigest(file.length(), file.lastModified(), DigestUtils.digestContents(file));
+        fileDigests.put(file, result);
+        return result.digest;
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                    out.write(buffer, 0, read);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class FileDigest {
+        final long length;
+        final long lastModified;
+        final String digest;
+
+        FileDigest(long length, long lastModified, String digest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package bndtools.builder;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An in-memory registry of the most recent {@link BuildRecord}s. Records are
+ * stored in a fixed-size ring buffer, so adding a record never blocks and
+ * never contends on a lock with readers or with other builds.
+ */
+public class BuildMetrics {
+
+    public interface Listener {
+        void recordAdded(BuildRecord record);
+    }
+
+    private static final int CAPACITY = 500;
+
+    private static final Comparator<BuildRecord> SEQUENCE_ORDER = new Comparator<BuildRecord>() {
+        public int compare(BuildRecord r1, BuildRecord r2) {
+            return r1.getSequence() < r2.getSequence() ? -1 : (r1.getSequence() == r2.getSequence() ? 0 : 1);
+        }
+    };
+
+    private final AtomicReferenceArray<BuildRecord> records = new AtomicReferenceArray<BuildRecord>(CAPACITY);
+    private final AtomicLong next = new AtomicLong(0);
+    private final AtomicLong clearedBefore = new AtomicLong(0);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    public void add(BuildRecord record) {
+        long sequence = next.getAndIncrement();
+        record.setSequence(sequence);
+        records.set((int) (sequence % CAPACITY), record);
+        for (Listener listener : listeners) {
+            listener.recordAdded(record);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the retained records, oldest first.
+     */
+    public List<BuildRecord> getRecords() {
+        long end = next.get();
+        long start = Math.max(clearedBefore.get(), end - CAPACITY);
+
+        List<BuildRecord> result = new ArrayList<BuildRecord>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            BuildRecord record = records.get(i);
+            if (record != null && record.getSequence() >= start)
+                result.add(record);
+        }
+        Collections.sort(result, SEQUENCE_ORDER);
+        return result;
+    }
+
+    public void clear() {
+        clearedBefore.set(next.get());
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Write the records as CSV, one line per build phase and one line per
+     * sub-bundle.
+     */
+    public static void writeCsv(List<BuildRecord> records, Writer writer) {
+        PrintWriter pw = new PrintWriter(writer);
+        pw.println("timestamp,project,kind,reason,item,name,millis,bytes,changed,cached");
+        for (BuildRecord record : records) {
+            String prefix = formatTimestamp(record.getTimestamp()) + "," + csv(record.getProject()) + "," + record.getKind() + "," + csv(record.getReason()) + ",";
+            pw.println(prefix + "total,," + toMillis(record.getTotalNanos()) + ",,,");
+            for (Entry<String, Long> phase : record.getPhases().entrySet()) {
+                pw.println(prefix + "phase," + csv(phase.getKey()) + "," + toMillis(phase.getValue()) + ",,,");
+            }
+            for (BuildRecord.SubBundleMetric subBundle : record.getSubBundles()) {
+                pw.println(prefix + "bundle," + csv(subBundle.getBsn()) + "," + toMillis(subBundle.getBuildNanos()) + "," + subBundle.getSize() + "," + subBundle.isChanged() + "," + subBundle.isCached());
+            }
+        }
+        pw.flush();
+    }
+
+    public static void writeJson(List<BuildRecord> records, Writer writer) {
+        PrintWriter pw = new PrintWriter(writer);
+        pw.println("[");
+        for (Iterator<BuildRecord> iter = records.iterator(); iter.hasNext();) {
+            BuildRecord record = iter.next();
+            pw.print("  {\"timestamp\": " + json(formatTimestamp(record.getTimestamp())));
+            pw.print(", \"project\": " + json(record.getProject()));
+            pw.print(", \"kind\": " + json(record.getKind()));
+            pw.print(", \"reason\": " + json(record.getReason()));
+            pw.println(", \"millis\": " + toMillis(record.getTotalNanos()) + ",");
+
+            pw.print("   \"phases\": {");
+            for (Iterator<Entry<String, Long>> phases = record.getPhases().entrySet().iterator(); phases.hasNext();) {
+                Entry<String, Long> phase = phases.next();
+                pw.print(json(phase.getKey()) + ": " + toMillis(phase.getValue()));
+                if (phases.hasNext())
+                    pw.print(", ");
+            }
+            pw.println("},");
+
+            pw.print("   \"bundles\": [");
+            for (Iterator<BuildRecord.SubBundleMetric> bundles = record.getSubBundles().iterator(); bundles.hasNext();) {
+                BuildRecord.SubBundleMetric bundle = bundles.next();
+                pw.print("{\"bsn\": " + json(bundle.getBsn()) + ", \"millis\": " + toMillis(bundle.getBuildNanos()) + ", \"bytes\": " + bundle.getSize() + ", \"changed\": " + bundle.isChanged() + ", \"cached\": " + bundle.isCached() + "}");
+                if (bundles.hasNext())
+                    pw.print(", ");
+            }
+            pw.print("]}");
+            pw.println(iter.hasNext() ? "," : "");
+        }
+        pw.println("]");
+        pw.flush();
+    }
+
+    public static String toMillis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.1f", nanos / 1000000.0);
+    }
+
+    private static String formatTimestamp(long timestamp) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(timestamp));
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+            return value;
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String json(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                builder.append("\\\"");
+                break;
+            case '\\':
+                builder.append("\\\\");
+                break;
+            case '\n':
+                builder.append("\\n");
+                break;
+            case '\r':
+                builder.append("\\r");
+                break;
+            case '\t':
+                builder.append("\\t");
+                break;
+            default:
+                if (c < 0x20)
+                    builder.append(String.format("\\u%04x", (int) c));
+                else
+                    builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -0,0 +1,139 @@
+package bndtools.builder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The timings of a single run of the bnd builder on a project. A record is
+ * filled in by the thread running the build and must not be modified after it
+ * has been added to the {@link BuildMetrics} registry.
+ */
+public class BuildRecord {
+
+    public static final String KIND_FULL = "full";
+    public static final String KIND_INCREMENTAL = "incremental";
+    public static final String KIND_SKIPPED = "skipped";
+
+    private final String project;
+    private final long timestamp;
+    private final long startNanos;
+
+    private long sequence;
+    private String kind = KIND_SKIPPED;
+    private String reason = "";
+    private long totalNanos;
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+    private final List<SubBundleMetric> subBundles = new ArrayList<SubBundleMetric>();
+
+    public BuildRecord(String project) {
+        this.project = project;
+        this.timestamp = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    void setDecision(String kind, String reason) {
+        this.kind = kind;
+        this.reason = reason;
+    }
+
+    /**
+     * Add the time elapsed since {@code startNanos} to the named phase. Phases
+     * that run more than once in a build are accumulated.
+     */
+    long phase(String name, long startNanos) {
+        long now = System.nanoTime();
+        Long previous = phases.get(name);
+        phases.put(name, (previous != null ? previous.longValue() : 0) + (now - startNanos));
+        return now;
+    }
+
+    void addSubBundle(SubBundleBuild subBuild) {
+        subBundles.add(new SubBundleMetric(subBuild.getBsn(), subBuild.getBuildNanos(), subBuild.isWritten() ? subBuild.getDeliverable().length() : 0, subBuild.isChanged(), subBuild.isCached()));
+    }
+
+    void finish() {
+        totalNanos = System.nanoTime() - startNanos;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public Map<String, Long> getPhases() {
+        return Collections.unmodifiableMap(phases);
+    }
+
+    public List<SubBundleMetric> getSubBundles() {
+        return Collections.unmodifiableList(subBundles);
+    }
+
+    public static class SubBundleMetric {
+        private final String bsn;
+        private final long buildNanos;
+        private final long size;
+        private final boolean changed;
+        private final boolean cached;
+
+        SubBundleMetric(String bsn, long buildNanos, long size, boolean changed, boolean cached) {
+            this.bsn = bsn;
+            this.buildNanos = buildNanos;
+            this.size = size;
+            this.changed = changed;
+            this.cached = cached;
+        }
+
+        public String getBsn() {
+            return bsn;
+        }
+
+        public long getBuildNanos() {
+            return buildNanos;
+        }
+
+        /**
+         * Returns the size in bytes of the deliverable JAR, or zero if it was
+         * not written.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isChanged() {
+            return changed;
+        }
+
+        /**
+         * Returns whether the bundle was restored from the build cache.
+         */
+        public boolean isCached() {
+            return cached;
+        }
+    }
+}
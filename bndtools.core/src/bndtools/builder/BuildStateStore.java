@@ -0,0 +1,271 @@
+package bndtools.builder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ISaveContext;
+import org.eclipse.core.resources.ISaveParticipant;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.jdt.core.IClasspathContainer;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+
+import aQute.bnd.build.Project;
+import bndtools.Plugin;
+import bndtools.classpath.BndContainerInitializer;
+import bndtools.utils.DigestUtils;
+import bndtools.utils.FileUtils;
+
+/**
+ * Persists fingerprints of the inputs of each bnd project build under the
+ * plugin state location, so that the first build of a project after an IDE
+ * restart can take the incremental path when nothing has changed since the
+ * last session.
+ * <p>
+ * The project fingerprint covers the project's bnd files, the workspace
+ * configuration, the entries of the bnd classpath container and the class
+ * files in the output folder. Each sub-bundle additionally records a digest
+ * of its own bnd file and the size and timestamp of its deliverable JAR.
+ * <p>
+ * The fingerprint is computed when a build completes, so that it records the
+ * inputs that were actually built, and kept in memory until the workspace is
+ * saved. Only then is it written, with a single file per project.
+ */
+public class BuildStateStore implements ISaveParticipant {
+
+    private static final String PROP_PROJECT = "project";
+    private static final String PREFIX_SUB = "sub.";
+    private static final String SUFFIX_STATE = ".state";
+
+    private final File stateDir;
+    /** State of the projects built since the last save, or null if it is not to be saved. */
+    private final Map<IProject, Properties> builtProjects = new LinkedHashMap<IProject, Properties>();
+
+    public BuildStateStore(File stateDir) {
+        this.stateDir = stateDir;
+    }
+
+    /**
+     * Returns whether the persisted state for the project matches its current
+     * inputs and all its deliverables are still present.
+     */
+    public boolean isUpToDate(IProject project, Project model) {
+        Properties saved = load(project);
+        if (saved == null)
+            return false;
+        try {
+            Properties current = computeState(project, model);
+            return current.equals(saved);
+        } catch (Exception e) {
+            Plugin.logError("Error computing build state for project " + project.getName(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the current inputs of the project after a build, or null if any
+     * of the deliverables are missing, e.g. because the build failed.
+     */
+    Properties computeBuiltState(IProject project, Project model) throws Exception {
+        for (SubBundleDescriptor subBundle : SubBundleDescriptors.getDescriptors(model)) {
+            if (!subBundle.getOutputFile().isFile())
+                return null;
+        }
+        return computeState(project, model);
+    }
+
+    private void save(IProject project, Properties state) {
+        File stateFile = getStateFile(project);
+        try {
+            stateDir.mkdirs();
+            OutputStream out = new FileOutputStream(stateFile);
+            try {
+                state.store(out, "Bnd build state for project " + project.getName());
+            } finally {
+                out.close();
+            }
+        } catch (Exception e) {
+            Plugin.logError("Error saving build state for project " + project.getName(), e);
+            stateFile.delete();
+        }
+    }
+
+    /**
+     * Record that the project has been built, with the inputs it was built
+     * from. The state is written by {@link #saveAll()}; until then, any state
+     * persisted earlier is removed so that it cannot be mistaken for the
+     * current one.
+     */
+    public void markBuilt(IProject project, Project model) {
+        Properties state;
+        try {
+            state = computeBuiltState(project, model);
+        } catch (Exception e) {
+            Plugin.logError("Error computing build state for project " + project.getName(), e);
+            state = null;
+        }
+        boolean added;
+        synchronized (builtProjects) {
+            added = !builtProjects.containsKey(project);
+            builtProjects.put(project, state);
+        }
+        if (added)
+            getStateFile(project).delete();
+    }
+
+    /**
+     * Save the state of all projects built since the last save.
+     */
+    public void saveAll() {
+        Map<IProject, Properties> projects;
+        synchronized (builtProjects) {
+            projects = new LinkedHashMap<IProject, Properties>(builtProjects);
+            builtProjects.clear();
+        }
+        for (Entry<IProject, Properties> entry : projects.entrySet()) {
+            if (entry.getValue() != null && entry.getKey().isOpen())
+                save(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Forget the persisted state for the project, e.g. after a clean.
+     */
+    public void discard(IProject project) {
+        synchronized (builtProjects) {
+            builtProjects.remove(project);
+        }
+        getStateFile(project).delete();
+    }
+
+    public void saving(ISaveContext context) {
+        if (context.getKind() == ISaveContext.FULL_SAVE)
+            saveAll();
+    }
+
+    public void prepareToSave(ISaveContext context) {
+    }
+
+    public void doneSaving(ISaveContext context) {
+    }
+
+    public void rollback(ISaveContext context) {
+    }
+
+    private Properties load(IProject project) {
+        File stateFile = getStateFile(project);
+        if (!stateFile.isFile())
+            return null;
+        Properties props = new Properties();
+        try {
+            InputStream in = new FileInputStream(stateFile);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            return props;
+        } catch (IOException e) {
+            Plugin.logError("Error loading build state for project " + project.getName(), e);
+            return null;
+        }
+    }
+
+    private File getStateFile(IProject project) {
+        return new File(stateDir, project.getName() + SUFFIX_STATE);
+    }
+
+    Properties computeState(IProject project, Project model) throws Exception {
+        Properties state = new Properties();
+        state.setProperty(PROP_PROJECT, computeProjectDigest(project, model));
+
+        for (SubBundleDescriptor subBundle : SubBundleDescriptors.getDescriptors(model)) {
+            state.setProperty(PREFIX_SUB + subBundle.getBsn(), computeSubBundleDigest(subBundle));
+        }
+        return state;
+    }
+
+    private String computeProjectDigest(IProject project, Project model) throws Exception {
+        MessageDigest digest = DigestUtils.newDigest();
+
+        // Bnd files of the project and the workspace configuration
+        File wsBuildFile = model.getWorkspace().getPropertiesFile();
+        if (wsBuildFile != null && wsBuildFile.isFile())
+            DigestUtils.updateContents(digest, wsBuildFile);
+        File[] bndFiles = model.getBase().listFiles(new BndFileFilter());
+        if (bndFiles != null) {
+            Arrays.sort(bndFiles);
+            for (File bndFile : bndFiles) {
+                DigestUtils.update(digest, bndFile.getName());
+                DigestUtils.updateContents(digest, bndFile);
+            }
+        }
+
+        // Classpath container entries
+        IJavaProject javaProject = JavaCore.create(project);
+        IClasspathContainer container = JavaCore.getClasspathContainer(BndContainerInitializer.ID, javaProject);
+        if (container != null) {
+            IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+            for (IClasspathEntry entry : container.getClasspathEntries()) {
+                DigestUtils.updateMetadata(digest, FileUtils.toFile(root, entry.getPath()));
+            }
+        }
+
+        // Class files in the output folder
+        File output = model.getOutput();
+        if (output != null && output.isDirectory())
+            digestTree(digest, output);
+
+        return DigestUtils.toHex(digest.digest());
+    }
+
+    private String computeSubBundleDigest(SubBundleDescriptor subBundle) throws Exception {
+        MessageDigest digest = DigestUtils.newDigest();
+
+        File propsFile = subBundle.getPropertiesFile();
+        if (propsFile != null && propsFile.isFile())
+            DigestUtils.updateContents(digest, propsFile);
+
+        DigestUtils.updateMetadata(digest, subBundle.getOutputFile());
+
+        return DigestUtils.toHex(digest.digest());
+    }
+
+    private static void digestTree(MessageDigest digest, File dir) {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+        Arrays.sort(children, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                return f1.getName().compareTo(f2.getName());
+            }
+        });
+        for (File child : children) {
+            if (child.isDirectory())
+                digestTree(digest, child);
+            else
+                DigestUtils.updateMetadata(digest, child);
+        }
+    }
+
+    private static class BndFileFilter implements FileFilter {
+        public boolean accept(File file) {
+            return file.isFile() && file.getName().toLowerCase().endsWith(".bnd");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package bndtools.builder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import aQute.lib.osgi.Jar;
+import aQute.lib.osgi.Resource;
+import bndtools.utils.DigestUtils;
+
+/**
+ * Computes digests of bundle contents that ignore timestamps, so that a
+ * freshly built {@link Jar} can be compared with the deliverable already on
+ * disk. The digest covers the name and content of every entry and the
+ * manifest headers, except for headers that change on every build or when
+ * the JAR is written.
+ */
+class JarDigests {
+
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    private static final Set<String> IGNORED_HEADERS = new HashSet<String>(Arrays.asList(new String[] {
+            "Bnd-LastModified",
+            // bnd writes "1" whatever the value in memory
+            "Manifest-Version"
+    }));
+
+    private static final Map<File, FileDigest> fileDigests = new ConcurrentHashMap<File, FileDigest>();
+
+    private JarDigests() {
+    }
+
+    static String compute(Jar jar) throws Exception {
+        MessageDigest digest = DigestUtils.newDigest();
+
+        Manifest manifest = jar.getManifest();
+        if (manifest != null)
+            updateManifest(digest, manifest);
+
+        Map<String, Resource> resources = new TreeMap<String, Resource>(jar.getResources());
+        for (Entry<String, Resource> entry : resources.entrySet()) {
+            if (MANIFEST_NAME.equals(entry.getKey()))
+                continue;
+            DigestUtils.update(digest, entry.getKey());
+            InputStream stream = entry.getValue().openInputStream();
+            try {
+                DigestUtils.updateContents(digest, stream);
+            } finally {
+                stream.close();
+            }
+        }
+        return DigestUtils.toHex(digest.digest());
+    }
+
+    /**
+     * Returns the content digest of the specified JAR file, or {@code null} if
+     * the file does not exist or cannot be read. Digests are cached for as
+     * long as the size and timestamp of the file do not change.
+     */
+    static String getDigest(File file) {
+        if (!file.isFile()) {
+            fileDigests.remove(file);
+            return null;
+        }
+
+        FileDigest cached = fileDigests.get(file);
+        if (cached != null && cached.matches(file))
+            return cached.digest;
+
+        try {
+            Jar jar = new Jar(file);
+            try {
+                String digest = compute(jar);
+                fileDigests.put(file, new FileDigest(file, digest));
+                return digest;
+            } finally {
+                jar.close();
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Record the digest of a JAR file that has just been written, to avoid
+     * reading it back on the next build.
+     */
+    static void record(File file, String digest) {
+        fileDigests.put(file, new FileDigest(file, digest));
+    }
+
+    private static void updateManifest(MessageDigest digest, Manifest manifest) {
+        updateAttributes(digest, manifest.getMainAttributes());
+
+        Map<String, Attributes> sections = new TreeMap<String, Attributes>(manifest.getEntries());
+        for (Entry<String, Attributes> section : sections.entrySet()) {
+            DigestUtils.update(digest, section.getKey());
+            updateAttributes(digest, section.getValue());
+        }
+    }
+
+    private static void updateAttributes(MessageDigest digest, Attributes attribs) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (Entry<Object, Object> entry : attribs.entrySet()) {
+            String name = entry.getKey().toString();
+            if (!IGNORED_HEADERS.contains(name))
+                sorted.put(name, String.valueOf(entry.getValue()));
+        }
+        for (Entry<String, String> entry : sorted.entrySet()) {
+            DigestUtils.update(digest, entry.getKey());
+            DigestUtils.update(digest, entry.getValue());
+        }
+    }
+
+    private static class FileDigest {
+        final long length;
+        final long lastModified;
+        final String digest;
+
+        FileDigest(File file, String digest) {
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.digest = digest;
+        }
+
+        boolean matches(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+}
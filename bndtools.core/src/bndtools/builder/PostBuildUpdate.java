@@ -0,0 +1,133 @@
+package bndtools.builder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.SubMonitor;
+
+/**
+ * Collects the workspace changes that follow a bnd build -- problem markers,
+ * refreshes of the files written by bnd and deletion of stale bundles -- and
+ * applies them in a single workspace operation, so that the build results in
+ * one consolidated resource delta rather than one per change.
+ */
+class PostBuildUpdate implements IWorkspaceRunnable {
+
+    private static final String[] MARKER_ATTRIBS = { IMarker.SEVERITY, IMarker.MESSAGE, IMarker.LINE_NUMBER, BndIncrementalBuilder.MARKER_ATTR_BSN };
+
+    private final IProject project;
+    private final IFile bndFile;
+
+    private boolean clearAllMarkers = false;
+    private final Set<String> clearedBsns = new LinkedHashSet<String>();
+    private final List<Object[]> markers = new ArrayList<Object[]>();
+    private final Set<File> refreshFiles = new LinkedHashSet<File>();
+    private final Set<File> deleteFiles = new LinkedHashSet<File>();
+
+    PostBuildUpdate(IProject project, IFile bndFile) {
+        this.project = project;
+        this.bndFile = bndFile;
+    }
+
+    /**
+     * Remove all bnd problem markers from the project's bnd file.
+     */
+    void clearMarkers() {
+        clearAllMarkers = true;
+    }
+
+    /**
+     * Remove the bnd problem markers reported by the specified sub-bundle.
+     */
+    void clearMarkers(String bsn) {
+        clearedBsns.add(bsn);
+    }
+
+    void addError(String message, String bsn) {
+        markers.add(new Object[] { IMarker.SEVERITY_ERROR, message, 1, bsn });
+    }
+
+    /**
+     * Add the errors of a sub-bundle build, and refresh its deliverable if it
+     * was rewritten or is missing.
+     */
+    void addSubBundle(SubBundleBuild subBuild) {
+        for (String errorMessage : subBuild.getErrors()) {
+            addError(subBuild.getBsn() + ": " + errorMessage, subBuild.getBsn());
+        }
+        if (subBuild.isChanged() || !subBuild.isWritten())
+            refresh(subBuild.getDeliverable());
+    }
+
+    /**
+     * Refresh a file that has been written or deleted outside the workspace
+     * API.
+     */
+    void refresh(File file) {
+        refreshFiles.add(file);
+    }
+
+    void delete(File file) {
+        deleteFiles.add(file);
+    }
+
+    /**
+     * Apply all collected changes in one workspace operation, holding only
+     * the project as scheduling rule.
+     */
+    void apply(IProgressMonitor monitor) throws CoreException {
+        ResourcesPlugin.getWorkspace().run(this, project, IWorkspace.AVOID_UPDATE, monitor);
+    }
+
+    public void run(IProgressMonitor monitor) throws CoreException {
+        SubMonitor progress = SubMonitor.convert(monitor, refreshFiles.size() + deleteFiles.size() + 1);
+        IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+
+        for (File file : deleteFiles) {
+            IFile wsFile = root.getFileForLocation(new Path(file.getAbsolutePath()));
+            if (wsFile != null && wsFile.exists())
+                wsFile.delete(true, progress.newChild(1));
+            else
+                file.delete();
+        }
+
+        for (File file : refreshFiles) {
+            IFile wsFile = root.getFileForLocation(new Path(file.getAbsolutePath()));
+            if (wsFile != null)
+                wsFile.refreshLocal(IResource.DEPTH_ZERO, progress.newChild(1));
+        }
+
+        if (bndFile.exists()) {
+            if (clearAllMarkers) {
+                bndFile.deleteMarkers(BndIncrementalBuilder.MARKER_BND_PROBLEM, true, IResource.DEPTH_INFINITE);
+            } else if (!clearedBsns.isEmpty()) {
+                for (IMarker marker : bndFile.findMarkers(BndIncrementalBuilder.MARKER_BND_PROBLEM, true, IResource.DEPTH_ZERO)) {
+                    if (clearedBsns.contains(marker.getAttribute(BndIncrementalBuilder.MARKER_ATTR_BSN, null)))
+                        marker.delete();
+                }
+            }
+            for (Object[] values : markers) {
+                IMarker marker = bndFile.createMarker(BndIncrementalBuilder.MARKER_BND_PROBLEM);
+                if (values[3] == null)
+                    marker.setAttributes(new String[] { IMarker.SEVERITY, IMarker.MESSAGE, IMarker.LINE_NUMBER }, new Object[] { values[0], values[1], values[2] });
+                else
+                    marker.setAttributes(MARKER_ATTRIBS, values);
+            }
+        }
+        progress.worked(1);
+    }
+}
@@ -0,0 +1,71 @@
+package bndtools.builder;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.build.ProjectBuilder;
+import aQute.lib.osgi.Builder;
+import aQute.lib.osgi.Constants;
+
+/**
+ * The sub-builders of a bnd project, obtained the same way as
+ * {@link Project#buildLocal(boolean)} does. Unlike
+ * {@link Project#getSubBuilders()}, the project builder they were created from
+ * is kept, so that {@link #close()} can close all of them and release the
+ * JARs on their classpath.
+ * <p>
+ * A project that sets {@code -nobundles} has no sub-builders.
+ */
+class SubBuilders {
+
+    private final Project model;
+    private final ProjectBuilder projectBuilder;
+    private final Collection<? extends Builder> builders;
+
+    SubBuilders(Project model) throws Exception {
+        this.model = model;
+        if (isNoBundles(model)) {
+            projectBuilder = null;
+            builders = Collections.emptyList();
+            return;
+        }
+        projectBuilder = model.getBuilder(null);
+        try {
+            builders = projectBuilder.getSubBuilders();
+        } catch (Exception e) {
+            projectBuilder.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the project opts out of building bundles.
+     */
+    static boolean isNoBundles(Project model) {
+        return model.getProperty(Constants.NOBUNDLES) != null;
+    }
+
+    Collection<? extends Builder> getBuilders() {
+        return builders;
+    }
+
+    /**
+     * Move the errors and warnings reported by the project builder itself,
+     * rather than by one of the sub-builders, to the project.
+     */
+    void reportProblems() {
+        if (projectBuilder != null)
+            model.getInfo(projectBuilder);
+    }
+
+    void close() {
+        if (projectBuilder == null)
+            return;
+        for (Builder builder : builders) {
+            if (builder != projectBuilder)
+                builder.close();
+        }
+        projectBuilder.close();
+    }
+}
@@ -0,0 +1,247 @@
+package bndtools.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import aQute.bnd.build.Project;
+import aQute.lib.osgi.Builder;
+import aQute.lib.osgi.Jar;
+
+/**
+ * Builds a single sub-bundle of a bnd project and writes its deliverable JAR.
+ * Problems reported by the sub-builder are captured in the instance so that
+ * the caller can turn them into markers once all sub-bundles are built.
+ * <p>
+ * Sub-bundles are independent of each other, so {@link #runAll(Collection, int)}
+ * can build them concurrently on a bounded pool of threads.
+ */
+class SubBundleBuild implements Callable<SubBundleBuild> {
+
+    private static final Comparator<SubBundleBuild> BSN_ORDER = new Comparator<SubBundleBuild>() {
+        public int compare(SubBundleBuild b1, SubBundleBuild b2) {
+            return b1.bsn.compareTo(b2.bsn);
+        }
+    };
+
+    private final Project model;
+    private final Builder builder;
+    private final String bsn;
+    private final File propertiesFile;
+    private final File deliverable;
+    private final BuildCache cache;
+    private final Map<File, String> folderDigests;
+
+    private final List<String> errors = new ArrayList<String>();
+    private final List<String> warnings = new ArrayList<String>();
+    private boolean written = false;
+    private boolean changed = false;
+    private boolean cached = false;
+    private long buildNanos = 0;
+
+    SubBundleBuild(Project model, Builder builder, BuildCache cache, Map<File, String> folderDigests) throws Exception {
+        this.model = model;
+        this.builder = builder;
+        this.bsn = builder.getBsn();
+        this.propertiesFile = builder.getPropertiesFile();
+        this.deliverable = new File(model.getTarget(), bsn + ".jar");
+        this.cache = cache;
+        this.folderDigests = folderDigests;
+    }
+
+    public SubBundleBuild call() throws Exception {
+        long start = System.nanoTime();
+        try {
+            String cacheKey = null;
+            if (cache != null) {
+                try {
+                    cacheKey = BuildCache.computeKey(builder, model.getWorkspace().getBase(), folderDigests);
+                    cached = cache.restore(cacheKey, deliverable, this);
+                } catch (Exception e) {
+                    builder.warning("Unable to use the build cache: %s", e.getMessage());
+                    cacheKey = null;
+                }
+            }
+            if (cached) {
+                written = true;
+                if (changed)
+                    model.getWorkspace().changedFile(deliverable);
+            } else {
+                build(cacheKey);
+            }
+        } catch (Exception e) {
+            builder.error("Unexpected error building sub-bundle: %s", e, e.getMessage());
+        }
+        buildNanos = System.nanoTime() - start;
+        errors.addAll(builder.getErrors());
+        warnings.addAll(builder.getWarnings());
+        builder.clear();
+        return this;
+    }
+
+    private void build(String cacheKey) throws Exception {
+        Jar jar = builder.build();
+        if (builder.isOk()) {
+            // Leave the existing deliverable untouched if its content is
+            // identical, so that its timestamp does not change and no
+            // resource deltas are generated for it.
+            String digest = JarDigests.compute(jar);
+            if (digest.equals(JarDigests.getDigest(deliverable))) {
+                jar.close();
+            } else {
+                // Write the file as Project.saveBuild() does, without
+                // going through Project.prepare(), which is not thread-safe
+                deliverable.delete();
+                deliverable.getParentFile().mkdirs();
+                try {
+                    jar.write(deliverable);
+                } finally {
+                    jar.close();
+                }
+                model.getWorkspace().changedFile(deliverable);
+                JarDigests.record(deliverable, digest);
+                changed = true;
+            }
+            written = true;
+
+            if (cacheKey != null) {
+                try {
+                    cache.store(cacheKey, deliverable);
+                } catch (IOException e) {
+                    builder.warning("Unable to store bundle in the build cache: %s", e.getMessage());
+                }
+            }
+        } else {
+            jar.close();
+        }
+    }
+
+    String getBsn() {
+        return bsn;
+    }
+
+    File getPropertiesFile() {
+        return propertiesFile;
+    }
+
+    File getDeliverable() {
+        return deliverable;
+    }
+
+    List<String> getErrors() {
+        return errors;
+    }
+
+    List<String> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * Returns whether the deliverable is present and up to date with the
+     * build, whether or not it actually had to be rewritten.
+     */
+    boolean isWritten() {
+        return written;
+    }
+
+    /**
+     * Returns whether the deliverable was rewritten because its content
+     * differs from the previous build.
+     */
+    boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * Returns whether the deliverable was restored from the build cache
+     * instead of being built.
+     */
+    boolean isCached() {
+        return cached;
+    }
+
+    void setChanged() {
+        changed = true;
+    }
+
+    /**
+     * Returns the time taken to analyse, build and write the bundle.
+     */
+    long getBuildNanos() {
+        return buildNanos;
+    }
+
+    static List<SubBundleBuild> create(Project model, Collection<? extends Builder> builders) throws Exception {
+        BuildCache cache = BndIncrementalBuilder.getBuildCache(model);
+        Map<File, String> folderDigests = new ConcurrentHashMap<File, String>();
+
+        List<SubBundleBuild> result = new ArrayList<SubBundleBuild>(builders.size());
+        for (Builder builder : builders) {
+            result.add(new SubBundleBuild(model, builder, cache, folderDigests));
+        }
+        return result;
+    }
+
+    /**
+     * Run all the specified sub-bundle builds, using up to
+     * {@code parallelism} threads. The returned list is always in the same
+     * (bsn) order, irrespective of the order in which the builds completed.
+     */
+    static List<SubBundleBuild> runAll(Collection<SubBundleBuild> builds, int parallelism) throws Exception {
+        List<SubBundleBuild> sorted = new ArrayList<SubBundleBuild>(builds);
+        Collections.sort(sorted, BSN_ORDER);
+
+        int threads = Math.min(parallelism, sorted.size());
+        if (threads <= 1) {
+            for (SubBundleBuild build : sorted) {
+                build.call();
+            }
+            return sorted;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new BuildThreadFactory());
+        try {
+            List<Future<SubBundleBuild>> futures = new ArrayList<Future<SubBundleBuild>>(sorted.size());
+            for (SubBundleBuild build : sorted) {
+                futures.add(executor.submit(build));
+            }
+            List<SubBundleBuild> result = new ArrayList<SubBundleBuild>(sorted.size());
+            for (Future<SubBundleBuild> future : futures) {
+                try {
+                    result.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception)
+                        throw (Exception) cause;
+                    throw e;
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class BuildThreadFactory implements ThreadFactory {
+        private static final AtomicInteger counter = new AtomicInteger(0);
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Bnd sub-bundle builder " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package bndtools.builder;
+
+import java.io.File;
+
+/**
+ * Describes a sub-bundle of a bnd project without holding on to its
+ * {@link aQute.lib.osgi.Builder}.
+ *
+ * @see SubBundleDescriptors
+ */
+public class SubBundleDescriptor {
+
+    private final String bsn;
+    private final File propertiesFile;
+    private final File outputFile;
+
+    SubBundleDescriptor(String bsn, File propertiesFile, File outputFile) {
+        this.bsn = bsn;
+        this.propertiesFile = propertiesFile;
+        this.outputFile = outputFile;
+    }
+
+    public String getBsn() {
+        return bsn;
+    }
+
+    /**
+     * Returns the bnd file that defines the sub-bundle.
+     */
+    public File getPropertiesFile() {
+        return propertiesFile;
+    }
+
+    /**
+     * Returns the JAR file that the sub-bundle is built to.
+     */
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    @Override
+    public String toString() {
+        return bsn;
+    }
+}
@@ -0,0 +1,99 @@
+package bndtools.builder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
+import aQute.lib.osgi.Builder;
+import bndtools.utils.DigestUtils;
+
+/**
+ * A cache of the sub-bundles of bnd projects. Expanding the {@code -sub}
+ * instruction creates a new {@link Builder} for every sub-bundle, each reading
+ * its own properties; callers that only need the names and files of the
+ * sub-bundles can use the descriptors cached here instead.
+ * <p>
+ * The descriptors of a project are recalculated when any of its bnd files or
+ * the workspace configuration change, as detected by their sizes and
+ * timestamps.
+ */
+public class SubBundleDescriptors {
+
+    private static final Map<File, Entry> cache = new ConcurrentHashMap<File, Entry>();
+
+    /**
+     * Returns the sub-bundles of the project, in the order of
+     * {@link Project#getSubBuilders()}.
+     */
+    public static List<SubBundleDescriptor> getDescriptors(Project project) throws Exception {
+        File base = project.getBase();
+        String fingerprint = computeFingerprint(project);
+
+        Entry entry = cache.get(base);
+        if (entry != null && entry.fingerprint.equals(fingerprint))
+            return entry.descriptors;
+
+        Collection<? extends Builder> builders = project.getSubBuilders();
+        List<SubBundleDescriptor> descriptors = new ArrayList<SubBundleDescriptor>(builders.size());
+        for (Builder builder : builders) {
+            String bsn = builder.getBsn();
+            descriptors.add(new SubBundleDescriptor(bsn, builder.getPropertiesFile(), new File(project.getTarget(), bsn + ".jar")));
+        }
+        descriptors = Collections.unmodifiableList(descriptors);
+        cache.put(base, new Entry(fingerprint, descriptors));
+        return descriptors;
+    }
+
+    /**
+     * Forget the cached sub-bundles of the project.
+     */
+    public static void invalidate(Project project) {
+        cache.remove(project.getBase());
+    }
+
+    private static String computeFingerprint(Project project) {
+        MessageDigest digest = DigestUtils.newDigest();
+        digestBndFiles(digest, project.getBase());
+
+        Workspace workspace = project.getWorkspace();
+        File wsBuildFile = workspace.getPropertiesFile();
+        if (wsBuildFile != null)
+            DigestUtils.updateMetadata(digest, wsBuildFile);
+        digestBndFiles(digest, new File(new File(workspace.getBase(), Workspace.CNFDIR), "ext"));
+
+        return DigestUtils.toHex(digest.digest());
+    }
+
+    private static void digestBndFiles(MessageDigest digest, File dir) {
+        File[] bndFiles = dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.getName().toLowerCase().endsWith(".bnd");
+            }
+        });
+        if (bndFiles == null)
+            return;
+        Arrays.sort(bndFiles);
+        for (File bndFile : bndFiles) {
+            DigestUtils.updateMetadata(digest, bndFile);
+        }
+    }
+
+    private static class Entry {
+        final String fingerprint;
+        final List<SubBundleDescriptor> descriptors;
+
+        Entry(String fingerprint, List<SubBundleDescriptor> descriptors) {
+            this.fingerprint = fingerprint;
+            this.descriptors = descriptors;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package bndtools.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import aQute.lib.osgi.Builder;
+import aQute.lib.osgi.Clazz;
+import aQute.lib.osgi.Constants;
+import aQute.lib.osgi.Instruction;
+import aQute.lib.osgi.Jar;
+import aQute.lib.osgi.Processor;
+import bndtools.utils.PathTrie;
+
+/**
+ * Routes changed files to the sub-bundles that include them, in a single pass
+ * over the changed files.
+ * <p>
+ * The classpath folders of all sub-builders are indexed in a {@link PathTrie},
+ * so finding the classpath folder and hence the package of a file costs time
+ * proportional to the depth of the file rather than to the number of
+ * sub-builders. Whether a package is included by a sub-builder is evaluated
+ * the same way as {@link Builder#isInScope(Collection)}, against the
+ * {@code Export-Package} and {@code Private-Package} instructions, and
+ * remembered so that each package is only evaluated once per sub-builder.
+ * <p>
+ * All paths are compared in canonical form, so that files are routed
+ * correctly when the workspace or a project is reached through a symbolic
+ * link.
+ */
+class SubBundleRouter {
+
+    private static final String FROM_DIRECTIVE = "from:";
+
+    private final List<Builder> builders;
+    private final Map<File, Builder> propertiesFiles = new HashMap<File, Builder>();
+    private final PathTrie<ClasspathRoot> roots = new PathTrie<ClasspathRoot>();
+    private final Map<Builder, Map<Instruction, Map<String, String>>> instructions = new HashMap<Builder, Map<Instruction, Map<String, String>>>();
+    private final Set<Builder> fromDirectiveUsers = new HashSet<Builder>();
+
+    SubBundleRouter(Collection<? extends Builder> builders) throws Exception {
+        this.builders = new ArrayList<Builder>(builders);
+
+        for (Builder builder : this.builders) {
+            File propertiesFile = builder.getPropertiesFile();
+            if (propertiesFile != null)
+                propertiesFiles.put(canonical(propertiesFile), builder);
+
+            Map<Instruction, Map<String, String>> builderInstructions = getInstructions(builder);
+            instructions.put(builder, builderInstructions);
+            for (Map<String, String> attribs : builderInstructions.values()) {
+                if (attribs != null && attribs.containsKey(FROM_DIRECTIVE))
+                    fromDirectiveUsers.add(builder);
+            }
+
+            for (Jar jar : builder.getClasspath()) {
+                File source = jar.getSource();
+                if (source == null || !source.isDirectory())
+                    continue;
+                source = canonical(source);
+                ClasspathRoot root = roots.get(source);
+                if (root == null) {
+                    root = new ClasspathRoot();
+                    roots.put(source, root);
+                }
+                root.builders.add(builder);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the file is the bnd file of one of the sub-builders.
+     */
+    boolean isSubBundleFile(File file) {
+        return propertiesFiles.containsKey(canonical(file));
+    }
+
+    /**
+     * Route each of the specified files to the sub-builders that include it.
+     * A sub-builder is affected by a file if the file is its bnd file, or if
+     * the file lies in a package included in its bundle.
+     *
+     * @return the affected sub-builders, in their original order, each with
+     *         the list of files that were routed to it.
+     */
+    Map<Builder, List<File>> route(Collection<File> files) {
+        Map<Builder, List<File>> routes = new HashMap<Builder, List<File>>();
+        for (File file : files) {
+            File path = canonical(file);
+            Builder owner = propertiesFiles.get(path);
+            if (owner != null) {
+                addRoute(routes, owner, file);
+                continue;
+            }
+
+            PathTrie.Match<ClasspathRoot> match = roots.findLongestPrefix(path);
+            if (match == null || match.getRemainder().length() == 0)
+                continue;
+            String pkg = Clazz.getPackage(match.getRemainder());
+            for (Builder builder : match.getValue().getIncluding(this, pkg, file.getName())) {
+                addRoute(routes, builder, file);
+            }
+        }
+
+        Map<Builder, List<File>> result = new LinkedHashMap<Builder, List<File>>();
+        for (Builder builder : builders) {
+            List<File> routed = routes.get(builder);
+            if (routed != null)
+                result.put(builder, routed);
+        }
+        return result;
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private static void addRoute(Map<Builder, List<File>> routes, Builder builder, File file) {
+        List<File> routed = routes.get(builder);
+        if (routed == null) {
+            routed = new LinkedList<File>();
+            routes.put(builder, routed);
+        }
+        routed.add(file);
+    }
+
+    private boolean includes(Builder builder, String pkg, String source) {
+        Instruction instruction = match(instructions.get(builder), pkg, source);
+        return instruction != null && !instruction.isNegated();
+    }
+
+    private boolean usesFromDirective(Builder builder) {
+        return fromDirectiveUsers.contains(builder);
+    }
+
+    private static Map<Instruction, Map<String, String>> getInstructions(Builder builder) {
+        Map<String, Map<String, String>> headers = builder.parseHeader(builder.getProperty(Constants.EXPORT_PACKAGE));
+        headers.putAll(builder.parseHeader(builder.getProperty(Constants.PRIVATE_PACKAGE)));
+        if (Processor.isTrue(builder.getProperty(Constants.UNDERTEST)))
+            headers.putAll(builder.parseHeader(builder.getProperty(Constants.TESTPACKAGES, "test;presence:=optional")));
+        return Instruction.replaceWithInstruction(headers);
+    }
+
+    /**
+     * Finds the first instruction matching the package, with the same
+     * semantics as the matching in {@link Builder}.
+     */
+    private static Instruction match(Map<Instruction, Map<String, String>> instructions, String pkg, String source) {
+        for (Entry<Instruction, Map<String, String>> entry : instructions.entrySet()) {
+            String from = entry.getValue() != null ? entry.getValue().get(FROM_DIRECTIVE) : null;
+            if (from != null) {
+                Instruction fromPattern = Instruction.getPattern(from);
+                if (!fromPattern.matches(source) || fromPattern.isNegated())
+                    return null;
+            }
+            if (entry.getKey().matches(pkg))
+                return entry.getKey();
+        }
+        return null;
+    }
+
+    private static class ClasspathRoot {
+        final List<Builder> builders = new LinkedList<Builder>();
+        final Map<String, List<Builder>> packageRoutes = new HashMap<String, List<Builder>>();
+
+        List<Builder> getIncluding(SubBundleRouter router, String pkg, String source) {
+            List<Builder> result = packageRoutes.get(pkg);
+            if (result == null) {
+                result = new LinkedList<Builder>();
+                boolean cacheable = true;
+                for (Builder builder : builders) {
+                    // The from: directive matches against the file name, so
+                    // the result cannot be shared by the whole package
+                    if (router.usesFromDirective(builder))
+                        cacheable = false;
+                    if (router.includes(builder, pkg, source))
+                        result.add(builder);
+                }
+                if (cacheable)
+                    packageRoutes.put(pkg, result);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package bndtools.builder;
+
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.jdt.core.JavaCore;
+
+import aQute.bnd.build.Container;
+import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
+import bndtools.Central;
+import bndtools.Plugin;
+import bndtools.utils.CircularDependencyException;
+import bndtools.utils.DependencyUtils;
+
+/**
+ * Generates the bundles of a set of bnd projects, and all the bnd projects
+ * they depend on, concurrently. The {@code -dependson} and {@code -buildpath}
+ * project graph is computed up front; each project is built by its own job
+ * holding only a scheduling rule on that project, and is scheduled as soon as
+ * all the projects it depends on have been built successfully.
+ * <p>
+ * Project models are not thread-safe: {@link Project#prepare()} updates state
+ * shared by all projects. The models are therefore refreshed and prepared,
+ * and their sub-builders created, one project at a time on the scheduler's
+ * thread while it holds the workspace root rule. The concurrent jobs only
+ * build and write the JARs.
+ * <p>
+ * This runs the bnd step only: the Java builder must already have compiled
+ * the projects.
+ */
+public class WorkspaceBuildScheduler extends Job {
+
+    private final Collection<IProject> roots;
+
+    private final Object lock = new Object();
+    private final Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+    private final Map<String, Integer> remainingDeps = new HashMap<String, Integer>();
+    private final LinkedList<String> ready = new LinkedList<String>();
+    private final Map<String, IStatus> results = new TreeMap<String, IStatus>();
+    private final List<Job> running = new LinkedList<Job>();
+    private final Map<String, PreparedProject> prepared = new HashMap<String, PreparedProject>();
+    private int pending;
+    private boolean canceled = false;
+
+    public WorkspaceBuildScheduler(Collection<IProject> roots) {
+        super("Building bnd projects");
+        this.roots = roots;
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        SubMonitor progress = SubMonitor.convert(monitor, 10);
+        try {
+            return buildAll(progress);
+        } finally {
+            for (PreparedProject project : prepared.values())
+                project.close();
+        }
+    }
+
+    private IStatus buildAll(SubMonitor progress) {
+        Map<String, Set<String>> dependencies;
+        List<String> order;
+        IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+        try {
+            try {
+                Job.getJobManager().beginRule(root, progress.newChild(1));
+                dependencies = computeDependencies(roots);
+                order = sortDependencies(dependencies, progress.newChild(1));
+
+                progress.setWorkRemaining(2 * order.size());
+                for (String name : order) {
+                    if (progress.isCanceled())
+                        return Status.CANCEL_STATUS;
+                    prepared.put(name, PreparedProject.prepare(root.getProject(name)));
+                    progress.worked(1);
+                }
+            } finally {
+                Job.getJobManager().endRule(root);
+            }
+        } catch (OperationCanceledException e) {
+            return Status.CANCEL_STATUS;
+        } catch (CircularDependencyException e) {
+            return new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, "Cannot build bnd projects: " + e.getLocalizedMessage(), e);
+        } catch (Exception e) {
+            return new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, "Error computing bnd project dependencies.", e);
+        }
+
+        synchronized (lock) {
+            pending = order.size();
+            for (String name : order) {
+                Set<String> deps = dependencies.get(name);
+                remainingDeps.put(name, deps.size());
+                for (String dep : deps) {
+                    Set<String> set = dependents.get(dep);
+                    if (set == null) {
+                        set = new TreeSet<String>();
+                        dependents.put(dep, set);
+                    }
+                    set.add(name);
+                }
+                if (deps.isEmpty())
+                    ready.add(name);
+            }
+            scheduleReady();
+
+            int lastReported = pending;
+            while (pending > 0) {
+                if (progress.isCanceled() && !canceled) {
+                    canceled = true;
+                    scheduleReady();
+                    for (Job job : running)
+                        job.cancel();
+                }
+                try {
+                    lock.wait(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Status.CANCEL_STATUS;
+                }
+                progress.worked(lastReported - pending);
+                lastReported = pending;
+            }
+        }
+
+        if (progress.isCanceled())
+            return Status.CANCEL_STATUS;
+
+        MultiStatus status = new MultiStatus(Plugin.PLUGIN_ID, 0, "Errors occurred while building bnd projects.", null);
+        for (IStatus result : results.values()) {
+            if (!result.isOK())
+                status.add(result);
+        }
+        return status;
+    }
+
+    private Map<String, Set<String>> computeDependencies(Collection<IProject> projects) throws Exception {
+        Workspace workspace = Central.getWorkspace();
+        Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+
+        LinkedList<String> queue = new LinkedList<String>();
+        for (IProject project : projects) {
+            if (project.isOpen() && project.hasNature(BndProjectNature.NATURE_ID))
+                queue.add(project.getName());
+        }
+        while (!queue.isEmpty()) {
+            String name = queue.removeFirst();
+            if (result.containsKey(name))
+                continue;
+
+            Set<String> deps = new TreeSet<String>();
+            result.put(name, deps);
+            Project model = workspace.getProject(name);
+            if (model == null)
+                continue;
+            Set<String> depNames = new TreeSet<String>();
+            for (Project dep : model.getDependson())
+                depNames.add(dep.getName());
+            for (Container container : model.getBuildpath()) {
+                if (container.getType() == Container.TYPE.PROJECT && container.getProject() != model)
+                    depNames.add(container.getProject().getName());
+            }
+            for (String depName : depNames) {
+                IProject depProject = ResourcesPlugin.getWorkspace().getRoot().getProject(depName);
+                if (depProject.isOpen() && depProject.hasNature(BndProjectNature.NATURE_ID)) {
+                    deps.add(depName);
+                    queue.add(depName);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static List<String> sortDependencies(Map<String, Set<String>> dependencies, IProgressMonitor monitor) throws CoreException, CircularDependencyException {
+        final List<String> order = new ArrayList<String>(dependencies.size());
+        DependencyUtils.processDependencyMap(new TreeSet<String>(dependencies.keySet()), dependencies, new DependencyUtils.Processor<String>() {
+            public void process(String name, IProgressMonitor monitor) throws CoreException {
+                order.add(name);
+            }
+        }, monitor);
+        return order;
+    }
+
+    /**
+     * Schedule as many ready projects as the configured parallelism allows.
+     * Must be called while holding the lock.
+     */
+    private void scheduleReady() {
+        if (canceled) {
+            while (!ready.isEmpty()) {
+                String name = ready.removeFirst();
+                results.put(name, Status.CANCEL_STATUS);
+                pending--;
+                skipDependents(name);
+            }
+            return;
+        }
+
+        int maxRunning = BndIncrementalBuilder.getProjectBuildParallelism();
+        while (!ready.isEmpty() && running.size() < maxRunning) {
+            final String name = ready.removeFirst();
+            final PreparedProject project = prepared.get(name);
+            Job job = new Job(MessageFormat.format("Building bnd project {0}", name)) {
+                @Override
+                protected IStatus run(IProgressMonitor monitor) {
+                    return project.build(monitor);
+                }
+            };
+            job.setRule(project.project);
+            job.setSystem(true);
+            job.addJobChangeListener(new JobChangeAdapter() {
+                @Override
+                public void done(IJobChangeEvent event) {
+                    projectDone(name, event.getJob(), event.getResult());
+                }
+            });
+            running.add(job);
+            job.schedule();
+        }
+    }
+
+    private void projectDone(String name, Job job, IStatus result) {
+        synchronized (lock) {
+            running.remove(job);
+            results.put(name, result);
+            pending--;
+
+            if (result.isOK()) {
+                Set<String> downstream = dependents.get(name);
+                if (downstream != null) {
+                    for (String dependent : downstream) {
+                        if (!results.containsKey(dependent)) {
+                            int remaining = remainingDeps.get(dependent) - 1;
+                            remainingDeps.put(dependent, remaining);
+                            if (remaining == 0)
+                                ready.add(dependent);
+                        }
+                    }
+                }
+            } else {
+                skipDependents(name);
+            }
+            scheduleReady();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Mark all projects that depend, directly or transitively, on the
+     * specified project as not built because the project failed or was
+     * cancelled. Must be called while holding the lock.
+     */
+    private void skipDependents(String failed) {
+        Set<String> downstream = dependents.get(failed);
+        if (downstream == null)
+            return;
+        for (String dependent : downstream) {
+            if (!results.containsKey(dependent)) {
+                results.put(dependent, new Status(IStatus.WARNING, Plugin.PLUGIN_ID, 0, MessageFormat.format("Bnd project {0} was not built because its dependency {1} was not built.", dependent, failed), null));
+                pending--;
+                skipDependents(dependent);
+            }
+        }
+    }
+
+    /**
+     * A project whose model has been prepared and whose sub-builders have
+     * been created, so that building it no longer uses the model.
+     */
+    private static class PreparedProject {
+        final IProject project;
+        private Project model;
+        private File target;
+        private SubBuilders subBuilders;
+        private List<SubBundleBuild> subBuilds = Collections.emptyList();
+        private final List<String> errors = new ArrayList<String>();
+        private IStatus failure;
+
+        private PreparedProject(IProject project) {
+            this.project = project;
+        }
+
+        /**
+         * Refresh and prepare the project's model. Must be called on the
+         * scheduler's thread, one project at a time.
+         */
+        static PreparedProject prepare(IProject project) {
+            PreparedProject result = new PreparedProject(project);
+            Project model = Plugin.getDefault().getCentral().getModel(JavaCore.create(project));
+            if (model == null) {
+                result.failure = new Status(IStatus.WARNING, Plugin.PLUGIN_ID, 0, MessageFormat.format("Unable to run Bnd on project {0}: Bnd workspace not configured.", project.getName()), null);
+                return result;
+            }
+
+            result.model = model;
+            try {
+                model.refresh();
+                model.setChanged();
+                result.target = model.getTarget();
+                if (!SubBuilders.isNoBundles(model)) {
+                    result.subBuilders = new SubBuilders(model);
+                    result.subBuilds = SubBundleBuild.create(model, result.subBuilders.getBuilders());
+                    result.subBuilders.reportProblems();
+                }
+                result.errors.addAll(model.getErrors());
+                model.clear();
+            } catch (Exception e) {
+                result.close();
+                result.failure = new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, MessageFormat.format("Error building bnd project {0}.", project.getName()), e);
+            }
+            return result;
+        }
+
+        /**
+         * Build and write the bundles of the project. This does not use the
+         * model's mutable state, so several projects can be built at once.
+         */
+        IStatus build(IProgressMonitor monitor) {
+            SubMonitor progress = SubMonitor.convert(monitor, 3);
+            try {
+                if (progress.isCanceled())
+                    return Status.CANCEL_STATUS;
+                if (failure != null)
+                    return failure;
+
+                PostBuildUpdate update = new PostBuildUpdate(project, project.getFile(Project.BNDFILE));
+                update.clearMarkers();
+
+                boolean ok = true;
+                if (subBuilders != null) {
+                    List<SubBundleBuild> built = SubBundleBuild.runAll(subBuilds, BndIncrementalBuilder.getBuildParallelism());
+                    BndIncrementalBuilder.writeBuildFiles(model, target, built, update);
+
+                    for (SubBundleBuild subBuild : built) {
+                        update.addSubBundle(subBuild);
+                        ok &= subBuild.getErrors().isEmpty();
+                    }
+                }
+                progress.worked(2);
+
+                for (String errorMessage : errors) {
+                    update.addError(errorMessage, null);
+                    ok = false;
+                }
+
+                // Unchanged bundles were not rewritten, so only the changed files are refreshed
+                update.apply(progress.newChild(1));
+
+                if (!ok)
+                    return new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, MessageFormat.format("Bnd project {0} has build errors.", project.getName()), null);
+                return Status.OK_STATUS;
+            } catch (Exception e) {
+                return new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, MessageFormat.format("Error building bnd project {0}.", project.getName()), e);
+            } finally {
+                close();
+            }
+        }
+
+        synchronized void close() {
+            if (subBuilders != null) {
+                subBuilders.close();
+                subBuilders = null;
+            }
+        }
+    }
+}
@@ -2,9 +2,16 @@ package bndtools.classpath;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
@@ -20,7 +27,7 @@ import org.eclipse.jdt.core.JavaCore;
 import aQute.bnd.build.Container;
 import aQute.bnd.build.Project;
 import aQute.bnd.build.Workspace;
-import aQute.bnd.plugin.ModelListener;
+import bndtools.BatchModelListener;
 import bndtools.Central;
 import bndtools.Plugin;
 
@@ -39,11 +46,30 @@ import bndtools.Plugin;
  * is centralized and available from the Activator.
  */
 public class BndContainerInitializer extends ClasspathContainerInitializer
-        implements ModelListener {
+        implements BatchModelListener {
 
     public final static Path ID      = new Path("aQute.bnd.classpath.container");
 
+    /**
+     * The entries last installed in the bnd container of each project, keyed
+     * by project name. IClasspathEntry implements equals() over the path,
+     * source attachment and attributes, so comparing the lists detects any
+     * change to the entries or their order.
+     */
+    private static final Map<String, List<IClasspathEntry>> installedEntries = new ConcurrentHashMap<String, List<IClasspathEntry>>();
+    private static final AtomicLong suppressedUpdates = new AtomicLong(0);
+
     final Central central = Plugin.getDefault().getCentral();
+    private final ClasspathRevalidationJob revalidationJob = new ClasspathRevalidationJob(this, central);
+    private final ClasspathPrecalculationJob precalculationJob = new ClasspathPrecalculationJob(this, central);
+
+    /**
+     * Entries calculated in bulk for projects whose containers have not been
+     * initialized yet. Each is used by the first initialization of its
+     * project and then discarded.
+     */
+    private final Map<IJavaProject, IClasspathEntry[]> precalculatedEntries = new ConcurrentHashMap<IJavaProject, IClasspathEntry[]>();
+    private final AtomicBoolean bulkInitialized = new AtomicBoolean(false);
 
     public BndContainerInitializer() {
         central.addModelListener(this);
@@ -52,7 +78,46 @@ public class BndContainerInitializer extends ClasspathContainerInitializer
     @Override
     public void initialize(IPath containerPath, IJavaProject project) throws CoreException {
         Project model = central.getModel(project);
-        requestClasspathContainerUpdate(containerPath, project, new BndContainer(project, calculateEntries(model)));
+
+        // Install the entries saved in the last session straight away, and
+        // check them later in the background
+        ClasspathSnapshotStore snapshots = Plugin.getDefault().getClasspathSnapshotStore();
+        IClasspathEntry[] entries = snapshots.load(project, model);
+        if (entries != null) {
+            requestClasspathContainerUpdate(containerPath, project, new BndContainer(project, entries));
+            revalidationJob.enqueue(project);
+            return;
+        }
+
+        // JDT initializes the containers one project at a time. On the first
+        // initialization that needs calculating, calculate the entries of all
+        // other such projects in the background, for the later initializations.
+        entries = precalculatedEntries.remove(project);
+        if (entries == null) {
+            if (bulkInitialized.compareAndSet(false, true))
+                precalculationJob.schedule();
+            entries = calculateEntries(model);
+        }
+
+        requestClasspathContainerUpdate(containerPath, project, new BndContainer(project, entries));
+        snapshots.save(project, model, entries);
+    }
+
+    /**
+     * Whether the container of the project has neither been installed nor
+     * calculated in advance.
+     */
+    boolean needsEntries(IJavaProject project) {
+        return !installedEntries.containsKey(project.getElementName()) && !precalculatedEntries.containsKey(project);
+    }
+
+    /**
+     * Keep the entries calculated in advance for the first initialization of
+     * the project's container, unless it has been initialized meanwhile.
+     */
+    void precalculated(IJavaProject project, IClasspathEntry[] entries) {
+        if (!installedEntries.containsKey(project.getElementName()))
+            precalculatedEntries.put(project, entries);
     }
 
     @Override
@@ -63,22 +128,132 @@ public class BndContainerInitializer extends ClasspathContainerInitializer
     @Override
     public void requestClasspathContainerUpdate(IPath containerPath, IJavaProject project, IClasspathContainer containerSuggestion) throws CoreException {
         JavaCore.setClasspathContainer(containerPath, new IJavaProject[] { project }, new IClasspathContainer[] { containerSuggestion }, null);
+        if (ID.equals(containerPath))
+            installedEntries.put(project.getElementName(), Arrays.asList(containerSuggestion.getClasspathEntries()));
+    }
+
+    /**
+     * Install a new bnd container with the specified entries in the project,
+     * unless the entries are identical to those installed by the previous
+     * update. Replacing a container forces JDT to re-resolve the classpath
+     * and usually to rebuild the project and its dependents.
+     *
+     * @return whether the container was replaced.
+     */
+    public static boolean updateClasspathContainer(IJavaProject project, IClasspathEntry[] entries) throws CoreException {
+        return updateClasspathContainers(Collections.singletonMap(project, entries)) > 0;
+    }
+
+    /**
+     * Install new bnd containers in several projects with a single JDT
+     * operation, skipping the projects whose entries are unchanged.
+     *
+     * @return the number of containers that were replaced.
+     */
+    public static int updateClasspathContainers(Map<IJavaProject, IClasspathEntry[]> projectEntries) throws CoreException {
+        List<IJavaProject> projects = new ArrayList<IJavaProject>(projectEntries.size());
+        List<IClasspathContainer> containers = new ArrayList<IClasspathContainer>(projectEntries.size());
+        for (Entry<IJavaProject, IClasspathEntry[]> entry : projectEntries.entrySet()) {
+            IJavaProject project = entry.getKey();
+            if (Arrays.asList(entry.getValue()).equals(installedEntries.get(project.getElementName()))) {
+                suppressedUpdates.incrementAndGet();
+            } else {
+                projects.add(project);
+                containers.add(new BndContainer(project, entry.getValue()));
+            }
+        }
+        if (projects.isEmpty())
+            return 0;
+
+        JavaCore.setClasspathContainer(ID, projects.toArray(new IJavaProject[projects.size()]), containers.toArray(new IClasspathContainer[containers.size()]), null);
+        for (int i = 0; i < projects.size(); i++) {
+            installedEntries.put(projects.get(i).getElementName(), Arrays.asList(containers.get(i).getClasspathEntries()));
+        }
+        return projects.size();
+    }
+
+    /**
+     * Returns the number of container updates that were skipped because the
+     * entries had not changed.
+     */
+    public static long getSuppressedUpdateCount() {
+        return suppressedUpdates.get();
     }
 
     public void modelChanged(Project model) throws Exception {
-        IJavaProject project = central.getJavaProject(model);
-        if (model == null || project == null) {
+        if (model == null)
             System.out.println("Help! No IJavaProject for " + model);
-        } else {
-            requestClasspathContainerUpdate(ID, project, new BndContainer(project, calculateEntries(model)));
+        else
+            modelsChanged(Collections.singletonList(model));
+    }
+
+    /**
+     * Recalculate the classpaths of all the changed models and
+     * install the containers that changed in one JDT operation so that JDT
+     * resolves the classpaths and rebuilds the projects in one wave.
+     */
+    public void modelsChanged(Collection<Project> models) throws Exception {
+        final Map<IJavaProject, Project> projects = new LinkedHashMap<IJavaProject, Project>();
+        for (Project model : models) {
+            IJavaProject project = central.getJavaProject(model);
+            if (project == null)
+                Plugin.logWarning("No Java project for bnd project " + model, null);
+            else
+                projects.put(project, model);
         }
+
+        Map<IJavaProject, IClasspathEntry[]> projectEntries = calculateEntries(projects);
+        for (IJavaProject project : projectEntries.keySet())
+            precalculatedEntries.remove(project);
+        updateClasspathContainers(projectEntries);
+
+        ClasspathSnapshotStore snapshots = Plugin.getDefault().getClasspathSnapshotStore();
+        for (Entry<IJavaProject, IClasspathEntry[]> entry : projectEntries.entrySet())
+            snapshots.save(entry.getKey(), projects.get(entry.getKey()), entry.getValue());
     }
 
     public void workspaceChanged(Workspace ws) throws Exception {
         System.out.println("Workspace changed");
     }
 
+    /**
+     * Calculate the entries of several projects. The projects are prepared
+     * one at a time because bnd project models are not thread-safe; only the
+     * workspace refresh and the container update are batched.
+     */
+    static Map<IJavaProject, IClasspathEntry[]> calculateEntries(Map<IJavaProject, Project> projects) throws Exception {
+        Map<IJavaProject, IClasspathEntry[]> projectEntries = new LinkedHashMap<IJavaProject, IClasspathEntry[]>();
+        Collection<IPath> workspacePaths = new ArrayList<IPath>();
+        for (Entry<IJavaProject, Project> entry : projects.entrySet())
+            projectEntries.put(entry.getKey(), calculateEntries(entry.getValue(), workspacePaths));
+
+        refreshWorkspacePaths(workspacePaths);
+        return projectEntries;
+    }
+
     public static IClasspathEntry[] calculateEntries(Project project) {
+        List<IPath> workspacePaths = new ArrayList<IPath>();
+        IClasspathEntry[] entries = calculateEntries(project, workspacePaths);
+        refreshWorkspacePaths(workspacePaths);
+        return entries;
+    }
+
+    /**
+     * Make sure the workspace contains the files, with at most one refresh
+     * per folder. Files known to be present need no work.
+     */
+    private static void refreshWorkspacePaths(Collection<IPath> workspacePaths) {
+        try {
+            Central.refresh(workspacePaths);
+        } catch (Throwable e) {
+        }
+    }
+
+    /**
+     * Calculate the entries of the project, adding the workspace paths that
+     * may need refreshing to the specified collection.
+     */
+    static IClasspathEntry[] calculateEntries(Project project, Collection<IPath> workspacePaths) {
         if(project == null)
             return new IClasspathEntry[0];
 
@@ -117,17 +292,15 @@ public class BndContainerInitializer extends ClasspathContainerInitializer
                 File file = c.getFile();
                 assert file.isAbsolute();
 
-                IPath p = fileToPath(project, file);
+                IPath p = fileToPath(project, file, workspacePaths);
                 if (c.getType() == Container.TYPE.PROJECT) {
                     File sourceDir = c.getProject().getSrc();
                     if (sourceDir.isDirectory())
                         sourceAttachment = Central.toPath(c.getProject(), sourceDir);
-
-//                } else {
-//                    File sourceBundle = c.getSourceBundle();
-//                    if (sourceBundle != null && sourceBundle.isAbsolute()) {
-//                        sourceAttachment = fileToPath(project, sourceBundle);
-//                    }
+                } else {
+                    File sourceBundle = SourceAttachments.getSourceBundle(project, c);
+                    if (sourceBundle != null)
+                        sourceAttachment = fileToPath(project, sourceBundle, workspacePaths);
                 }
 
                 cpe = JavaCore.newLibraryEntry(p, sourceAttachment, null);
@@ -137,16 +310,17 @@ public class BndContainerInitializer extends ClasspathContainerInitializer
         return result.toArray(new IClasspathEntry[result.size()]);
     }
 
-    protected static IPath fileToPath(Project project, File file) {
+    /**
+     * Convert the file to a workspace path if it is inside the workspace,
+     * adding it to the workspace paths to refresh, or to an absolute file
+     * system path otherwise.
+     */
+    protected static IPath fileToPath(Project project, File file, Collection<IPath> workspacePaths) {
         IPath path = Central.toPath(project, file);
         if (path == null)
-            path = Path.fromOSString(file.getAbsolutePath());
-
-        try {
-            Central.refresh(path);
-        } catch (Throwable e) {
-        }
+            return Path.fromOSString(file.getAbsolutePath());
 
+        workspacePaths.add(path);
         return path;
     }
 }
\ No newline at end of file
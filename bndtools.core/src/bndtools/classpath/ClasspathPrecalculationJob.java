@@ -0,0 +1,72 @@
+package bndtools.classpath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+
+import aQute.bnd.build.Project;
+import bndtools.Central;
+import bndtools.Plugin;
+
+/**
+ * Calculates in the background the bnd classpath entries of the open bnd
+ * projects that have no valid classpath snapshot, so that JDT finds them
+ * ready when it initializes their containers. The projects are calculated
+ * one at a time under the workspace root rule, because project models are
+ * not thread-safe.
+ */
+class ClasspathPrecalculationJob extends Job {
+
+    private final BndContainerInitializer initializer;
+    private final Central central;
+
+    ClasspathPrecalculationJob(BndContainerInitializer initializer, Central central) {
+        super("Calculating bnd classpath containers");
+        this.initializer = initializer;
+        this.central = central;
+        setSystem(true);
+        setPriority(Job.DECORATE);
+        setRule(ResourcesPlugin.getWorkspace().getRoot());
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        List<IJavaProject> projects = new ArrayList<IJavaProject>();
+        for (IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+            if (!project.isOpen() || !project.getFile(Project.BNDFILE).exists())
+                continue;
+            IJavaProject javaProject = JavaCore.create(project);
+            if (javaProject != null && javaProject.exists())
+                projects.add(javaProject);
+        }
+
+        ClasspathSnapshotStore snapshots = Plugin.getDefault().getClasspathSnapshotStore();
+        SubMonitor progress = SubMonitor.convert(monitor, projects.size());
+        for (IJavaProject project : projects) {
+            if (progress.isCanceled())
+                return Status.CANCEL_STATUS;
+            progress.worked(1);
+            if (!initializer.needsEntries(project))
+                continue;
+
+            Project model = central.getModel(project);
+            if (model == null || snapshots.load(project, model) != null)
+                continue;
+            try {
+                initializer.precalculated(project, BndContainerInitializer.calculateEntries(model));
+            } catch (Exception e) {
+                Plugin.logError("Error calculating bnd classpath container of " + project.getElementName(), e);
+            }
+        }
+        return Status.OK_STATUS;
+    }
+}
@@ -0,0 +1,74 @@
+package bndtools.classpath;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.IJavaProject;
+
+import aQute.bnd.build.Project;
+import bndtools.Central;
+import bndtools.Plugin;
+
+/**
+ * Recalculates in the background the bnd classpath containers that were
+ * installed from snapshots, replacing those whose entries have changed.
+ * Projects queued while the job is waiting or running are handled together
+ * in the next batch. The job holds the workspace root rule, like the model
+ * refresh job, so that it never prepares models concurrently with it.
+ */
+class ClasspathRevalidationJob extends Job {
+
+    private static final long DELAY = 500;
+
+    private final BndContainerInitializer initializer;
+    private final Central central;
+    private final Set<IJavaProject> pending = new LinkedHashSet<IJavaProject>();
+
+    ClasspathRevalidationJob(BndContainerInitializer initializer, Central central) {
+        super("Checking bnd classpath containers");
+        this.initializer = initializer;
+        this.central = central;
+        setSystem(true);
+        setPriority(Job.DECORATE);
+        setRule(ResourcesPlugin.getWorkspace().getRoot());
+    }
+
+    void enqueue(IJavaProject project) {
+        synchronized (this) {
+            pending.add(project);
+        }
+        schedule(DELAY);
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        List<IJavaProject> projects;
+        synchronized (this) {
+            projects = new ArrayList<IJavaProject>(pending);
+            pending.clear();
+        }
+
+        List<Project> models = new ArrayList<Project>(projects.size());
+        for (IJavaProject project : projects) {
+            if (!project.exists())
+                continue;
+            Project model = central.getModel(project);
+            if (model != null)
+                models.add(model);
+        }
+
+        try {
+            initializer.modelsChanged(models);
+        } catch (Exception e) {
+            return new Status(IStatus.ERROR, Plugin.PLUGIN_ID, 0, "Error checking bnd classpath containers.", e);
+        }
+        return Status.OK_STATUS;
+    }
+}
@@ -0,0 +1,165 @@
+package bndtools.classpath;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
+import bndtools.Plugin;
+import bndtools.utils.DigestUtils;
+import bndtools.utils.FileUtils;
+
+/**
+ * Persists the last calculated entries of the bnd classpath container of each
+ * project under the plugin state location, so that the containers can be
+ * installed at startup without resolving the buildpath of every project.
+ * <p>
+ * Each snapshot is stored with a validity key covering the project's bnd
+ * files, the workspace configuration and the repository index. A snapshot
+ * whose key no longer matches, or that refers to files that no longer exist,
+ * is ignored.
+ */
+public class ClasspathSnapshotStore {
+
+    private static final String PROP_KEY = "key";
+    private static final String PROP_COUNT = "entries";
+    private static final String PREFIX_PATH = "path.";
+    private static final String PREFIX_SOURCE = "source.";
+    private static final String SUFFIX_SNAPSHOT = ".classpath";
+    /** Changed whenever the way keys are computed changes. */
+    private static final String KEY_FORMAT = "1";
+    private static final String REPOSITORY_INDEX = "repository.xml";
+
+    private final File stateDir;
+
+    public ClasspathSnapshotStore(File stateDir) {
+        this.stateDir = stateDir;
+    }
+
+    /**
+     * Returns the saved container entries of the project, or null if there
+     * is no valid snapshot.
+     */
+    public IClasspathEntry[] load(IJavaProject project, Project model) {
+        File snapshotFile = getSnapshotFile(project);
+        if (model == null || !snapshotFile.isFile())
+            return null;
+        try {
+            Properties props = new Properties();
+            InputStream in = new FileInputStream(snapshotFile);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            if (!computeKey(model).equals(props.getProperty(PROP_KEY)))
+                return null;
+
+            IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+            int count = Integer.parseInt(props.getProperty(PROP_COUNT, "0"));
+            IClasspathEntry[] entries = new IClasspathEntry[count];
+            for (int i = 0; i < count; i++) {
+                String pathStr = props.getProperty(PREFIX_PATH + i);
+                if (pathStr == null)
+                    return null;
+                IPath path = Path.fromPortableString(pathStr);
+                if (!FileUtils.toFile(root, path).exists())
+                    return null;
+                String sourceStr = props.getProperty(PREFIX_SOURCE + i);
+                IPath source = sourceStr != null ? Path.fromPortableString(sourceStr) : null;
+                entries[i] = JavaCore.newLibraryEntry(path, source, null);
+            }
+            return entries;
+        } catch (Exception e) {
+            Plugin.logError("Error loading classpath snapshot for project " + project.getElementName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Record the container entries calculated for the project.
+     */
+    public void save(IJavaProject project, Project model, IClasspathEntry[] entries) {
+        File snapshotFile = getSnapshotFile(project);
+        if (model == null) {
+            snapshotFile.delete();
+            return;
+        }
+        try {
+            Properties props = new Properties();
+            props.setProperty(PROP_KEY, computeKey(model));
+            props.setProperty(PROP_COUNT, Integer.toString(entries.length));
+            for (int i = 0; i < entries.length; i++) {
+                props.setProperty(PREFIX_PATH + i, entries[i].getPath().toPortableString());
+                IPath source = entries[i].getSourceAttachmentPath();
+                if (source != null)
+                    props.setProperty(PREFIX_SOURCE + i, source.toPortableString());
+            }
+
+            stateDir.mkdirs();
+            OutputStream out = new FileOutputStream(snapshotFile);
+            try {
+                props.store(out, "Bnd classpath snapshot for project " + project.getElementName());
+            } finally {
+                out.close();
+            }
+        } catch (Exception e) {
+            Plugin.logError("Error saving classpath snapshot for project " + project.getElementName(), e);
+            snapshotFile.delete();
+        }
+    }
+
+    private File getSnapshotFile(IJavaProject project) {
+        return new File(stateDir, project.getElementName() + SUFFIX_SNAPSHOT);
+    }
+
+    private static String computeKey(Project model) throws IOException {
+        MessageDigest digest = DigestUtils.newDigest();
+        DigestUtils.update(digest, KEY_FORMAT);
+
+        // Bnd files of the project
+        digestBndFiles(digest, model.getBase());
+
+        // Workspace configuration and repository index
+        Workspace workspace = model.getWorkspace();
+        File cnfDir = new File(workspace.getBase(), Workspace.CNFDIR);
+        File wsBuildFile = workspace.getPropertiesFile();
+        if (wsBuildFile != null && wsBuildFile.isFile())
+            DigestUtils.updateContents(digest, wsBuildFile);
+        digestBndFiles(digest, new File(cnfDir, "ext"));
+        DigestUtils.updateMetadata(digest, new File(cnfDir, REPOSITORY_INDEX));
+
+        return DigestUtils.toHex(digest.digest());
+    }
+
+    private static void digestBndFiles(MessageDigest digest, File dir) throws IOException {
+        File[] bndFiles = dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().toLowerCase().endsWith(".bnd");
+            }
+        });
+        if (bndFiles == null)
+            return;
+        Arrays.sort(bndFiles);
+        for (File bndFile : bndFiles) {
+            DigestUtils.update(digest, bndFile.getName());
+            DigestUtils.updateContents(digest, bndFile);
+        }
+    }
+}
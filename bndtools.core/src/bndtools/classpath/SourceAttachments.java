@@ -0,0 +1,65 @@
+package bndtools.classpath;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import aQute.bnd.build.Container;
+import aQute.bnd.build.Project;
+import bndtools.Plugin;
+import bndtools.bndplugins.repo.SourceRepositoryPlugin;
+
+/**
+ * Finds the source bundles of repository bundles through the repository
+ * plugins that implement {@link SourceRepositoryPlugin}. Lookups are only
+ * made when a classpath is calculated, and the result for each bundle,
+ * identified by its bsn and file (and hence its version), is cached until the
+ * repositories are refreshed.
+ */
+public class SourceAttachments {
+
+    private static final File NONE = new File("");
+    private static final ConcurrentMap<String, File> sourceBundles = new ConcurrentHashMap<String, File>();
+
+    /**
+     * Returns the source bundle of the repository bundle in the container, or
+     * null if the container is not a repository bundle or no source is
+     * available.
+     */
+    static File getSourceBundle(Project project, Container container) {
+        if (container.getType() != Container.TYPE.REPO)
+            return null;
+
+        String bsn = container.getBundleSymbolicName();
+        File binary = container.getFile();
+        String key = bsn + ";" + binary.getAbsolutePath();
+
+        File source = sourceBundles.get(key);
+        if (source == null || (source != NONE && !source.isFile())) {
+            source = findSourceBundle(project, binary, bsn);
+            sourceBundles.put(key, source != null ? source : NONE);
+        }
+        return source != NONE ? source : null;
+    }
+
+    private static File findSourceBundle(Project project, File binary, String bsn) {
+        for (SourceRepositoryPlugin repo : project.getWorkspace().getPlugins(SourceRepositoryPlugin.class)) {
+            try {
+                File source = repo.getSourceBundle(binary, bsn);
+                if (source != null && source.isFile())
+                    return source;
+            } catch (Exception e) {
+                Plugin.logError("Error getting source bundle for " + bsn + " from repository " + repo, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget all cached lookups, e.g. because the repositories have been
+     * refreshed.
+     */
+    public static void clear() {
+        sourceBundles.clear();
+    }
+}
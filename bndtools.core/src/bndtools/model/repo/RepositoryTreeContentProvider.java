@@ -2,7 +2,6 @@ package bndtools.model.repo;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -15,9 +14,10 @@ import org.eclipse.jface.viewers.Viewer;
 import aQute.bnd.build.Project;
 import aQute.bnd.build.Workspace;
 import aQute.bnd.service.RepositoryPlugin;
-import aQute.lib.osgi.Builder;
 import aQute.libg.version.Version;
 import bndtools.Plugin;
+import bndtools.builder.SubBundleDescriptor;
+import bndtools.builder.SubBundleDescriptors;
 
 public class RepositoryTreeContentProvider implements ITreeContentProvider {
 
@@ -116,12 +116,12 @@ public class RepositoryTreeContentProvider implements ITreeContentProvider {
     ProjectBundle[] getProjectBundles(Project project) {
         ProjectBundle[] result = null;
         try {
-            Collection<? extends Builder> builders = project.getSubBuilders();
-            result = new ProjectBundle[builders.size()];
+            List<SubBundleDescriptor> subBundles = SubBundleDescriptors.getDescriptors(project);
+            result = new ProjectBundle[subBundles.size()];
 
             int i = 0;
-            for (Builder builder : builders) {
-                ProjectBundle bundle = new ProjectBundle(project, builder.getBsn());
+            for (SubBundleDescriptor subBundle : subBundles) {
+                ProjectBundle bundle = new ProjectBundle(project, subBundle.getBsn());
                 result[i++] = bundle;
             }
         } catch (Exception e) {
@@ -8,6 +8,8 @@ import org.eclipse.jface.dialogs.MessageDialogWithToggle;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.preference.PreferencePage;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.layout.GridData;
@@ -16,6 +18,9 @@ import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Group;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Spinner;
+import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
 
@@ -36,6 +41,14 @@ public class BndPreferencePage extends PreferencePage implements IWorkbenchPrefe
 	private String enableSubs;
 	private boolean noAskPackageInfo = false;
 	private boolean noCheckCnf = false;
+	private boolean buildAffectedOnly = false;
+	private boolean parallelBuild = false;
+	private boolean rewriteUnchanged = false;
+	private int buildThreads = 0;
+	private boolean buildCache = false;
+	private int buildCacheSize = 0;
+	private String buildCacheDir = "";
+	private int maxProjectModels = 0;
 
 	@Override
 	protected Control createContents(Composite parent) {
@@ -66,6 +79,33 @@ public class BndPreferencePage extends PreferencePage implements IWorkbenchPrefe
 		final Button btnNoAskPackageInfo = new Button(exportsGroup, SWT.CHECK);
 		btnNoAskPackageInfo.setText("Always generate \"packageinfo\" file.");
 
+		Group buildGroup = new Group(composite, SWT.NONE);
+		buildGroup.setText("Build");
+
+		final Button btnBuildAffectedOnly = new Button(buildGroup, SWT.CHECK);
+		btnBuildAffectedOnly.setText("Only rebuild the sub-bundles affected by a change.");
+		final Button btnRewriteUnchanged = new Button(buildGroup, SWT.CHECK);
+		btnRewriteUnchanged.setText("Rewrite bundles even if their contents have not changed.");
+		final Button btnParallelBuild = new Button(buildGroup, SWT.CHECK);
+		btnParallelBuild.setText("Build sub-bundles in parallel.");
+		Label lblBuildThreads = new Label(buildGroup, SWT.NONE);
+		lblBuildThreads.setText("Maximum threads (0 = one per processor):");
+		final Spinner spnBuildThreads = new Spinner(buildGroup, SWT.BORDER);
+		spnBuildThreads.setValues(0, 0, 64, 0, 1, 4);
+		final Button btnBuildCache = new Button(buildGroup, SWT.CHECK);
+		btnBuildCache.setText("Cache built bundles and reuse them when their inputs are unchanged.");
+		Label lblBuildCacheSize = new Label(buildGroup, SWT.NONE);
+		lblBuildCacheSize.setText("Maximum cache size in MB (0 = default):");
+		final Spinner spnBuildCacheSize = new Spinner(buildGroup, SWT.BORDER);
+		spnBuildCacheSize.setValues(0, 0, 100000, 0, 64, 512);
+		Label lblBuildCacheDir = new Label(buildGroup, SWT.NONE);
+		lblBuildCacheDir.setText("Cache folder (empty = cnf/cache/build):");
+		final Text txtBuildCacheDir = new Text(buildGroup, SWT.BORDER);
+		Label lblMaxProjectModels = new Label(buildGroup, SWT.NONE);
+		lblMaxProjectModels.setText("Maximum project models kept in memory (0 = no limit):");
+		final Spinner spnMaxProjectModels = new Spinner(buildGroup, SWT.BORDER);
+		spnMaxProjectModels.setValues(0, 0, 100000, 0, 10, 100);
+
 		// Load Data
 		if(MessageDialogWithToggle.ALWAYS.equals(enableSubs)) {
 			btnAlways.setSelection(true);
@@ -83,6 +123,17 @@ public class BndPreferencePage extends PreferencePage implements IWorkbenchPrefe
 		btnNoAskPackageInfo.setSelection(noAskPackageInfo);
 		btnNoCheckCnf.setSelection(noCheckCnf);
 		btnCheckCnfNow.setEnabled(!noCheckCnf);
+		btnBuildAffectedOnly.setSelection(buildAffectedOnly);
+		btnRewriteUnchanged.setSelection(rewriteUnchanged);
+		btnParallelBuild.setSelection(parallelBuild);
+		spnBuildThreads.setSelection(buildThreads);
+		spnBuildThreads.setEnabled(parallelBuild);
+		btnBuildCache.setSelection(buildCache);
+		spnBuildCacheSize.setSelection(buildCacheSize);
+		spnBuildCacheSize.setEnabled(buildCache);
+		txtBuildCacheDir.setText(buildCacheDir);
+		txtBuildCacheDir.setEnabled(buildCache);
+		spnMaxProjectModels.setSelection(maxProjectModels);
 
 		// Listeners
 		SelectionAdapter adapter = new SelectionAdapter() {
@@ -117,6 +168,53 @@ public class BndPreferencePage extends PreferencePage implements IWorkbenchPrefe
 		        btnCheckCnfNow.setEnabled(!noCheckCnf);
 		    }
         });
+		btnBuildAffectedOnly.addSelectionListener(new SelectionAdapter() {
+		    @Override
+		    public void widgetSelected(SelectionEvent e) {
+		        buildAffectedOnly = btnBuildAffectedOnly.getSelection();
+		    }
+		});
+		btnRewriteUnchanged.addSelectionListener(new SelectionAdapter() {
+		    @Override
+		    public void widgetSelected(SelectionEvent e) {
+		        rewriteUnchanged = btnRewriteUnchanged.getSelection();
+		    }
+		});
+		btnParallelBuild.addSelectionListener(new SelectionAdapter() {
+		    @Override
+		    public void widgetSelected(SelectionEvent e) {
+		        parallelBuild = btnParallelBuild.getSelection();
+		        spnBuildThreads.setEnabled(parallelBuild);
+		    }
+		});
+		spnBuildThreads.addModifyListener(new ModifyListener() {
+		    public void modifyText(ModifyEvent e) {
+		        buildThreads = spnBuildThreads.getSelection();
+		    }
+		});
+		btnBuildCache.addSelectionListener(new SelectionAdapter() {
+		    @Override
+		    public void widgetSelected(SelectionEvent e) {
+		        buildCache = btnBuildCache.getSelection();
+		        spnBuildCacheSize.setEnabled(buildCache);
+		        txtBuildCacheDir.setEnabled(buildCache);
+		    }
+		});
+		spnBuildCacheSize.addModifyListener(new ModifyListener() {
+		    public void modifyText(ModifyEvent e) {
+		        buildCacheSize = spnBuildCacheSize.getSelection();
+		    }
+		});
+		txtBuildCacheDir.addModifyListener(new ModifyListener() {
+		    public void modifyText(ModifyEvent e) {
+		        buildCacheDir = txtBuildCacheDir.getText();
+		    }
+		});
+		spnMaxProjectModels.addModifyListener(new ModifyListener() {
+		    public void modifyText(ModifyEvent e) {
+		        maxProjectModels = spnMaxProjectModels.getSelection();
+		    }
+		});
 		btnCheckCnfNow.addSelectionListener(new SelectionAdapter() {
 		    @Override
 		    public void widgetSelected(SelectionEvent e) {
@@ -155,6 +253,20 @@ public class BndPreferencePage extends PreferencePage implements IWorkbenchPrefe
 		gd = new GridData(SWT.LEFT, SWT.CENTER, true, false);
 		btnCheckCnfNow.setLayoutData(gd);
 
+		gd = new GridData(SWT.FILL, SWT.FILL, true, false);
+		buildGroup.setLayoutData(gd);
+		buildGroup.setLayout(new GridLayout(2, false));
+		gd = new GridData(SWT.LEFT, SWT.CENTER, true, false, 2, 1);
+		btnBuildAffectedOnly.setLayoutData(gd);
+		gd = new GridData(SWT.LEFT, SWT.CENTER, true, false, 2, 1);
+		btnRewriteUnchanged.setLayoutData(gd);
+		gd = new GridData(SWT.LEFT, SWT.CENTER, true, false, 2, 1);
+		btnParallelBuild.setLayoutData(gd);
+		gd = new GridData(SWT.LEFT, SWT.CENTER, true, false, 2, 1);
+		btnBuildCache.setLayoutData(gd);
+		gd = new GridData(SWT.FILL, SWT.CENTER, true, false);
+		txtBuildCacheDir.setLayoutData(gd);
+
 		return composite;
 	}
 
@@ -163,6 +275,14 @@ public class BndPreferencePage extends PreferencePage implements IWorkbenchPrefe
 		store.setValue(Plugin.PREF_ENABLE_SUB_BUNDLES, enableSubs);
 		store.setValue(Plugin.PREF_NOASK_PACKAGEINFO, noAskPackageInfo);
 		store.setValue(Plugin.PREF_HIDE_INITIALISE_CNF_WIZARD, noCheckCnf);
+		store.setValue(Plugin.PREF_BUILD_AFFECTED_SUB_BUNDLES_ONLY, buildAffectedOnly);
+		store.setValue(Plugin.PREF_REWRITE_UNCHANGED_BUNDLES, rewriteUnchanged);
+		store.setValue(Plugin.PREF_PARALLEL_SUB_BUNDLE_BUILD, parallelBuild);
+		store.setValue(Plugin.PREF_BUILD_THREADS, buildThreads);
+		store.setValue(Plugin.PREF_BUILD_CACHE, buildCache);
+		store.setValue(Plugin.PREF_BUILD_CACHE_SIZE, buildCacheSize);
+		store.setValue(Plugin.PREF_BUILD_CACHE_DIR, buildCacheDir.trim());
+		store.setValue(Plugin.PREF_MAX_PROJECT_MODELS, maxProjectModels);
 		return true;
 	}
 
@@ -172,5 +292,13 @@ public class BndPreferencePage extends PreferencePage implements IWorkbenchPrefe
 		enableSubs = store.getString(Plugin.PREF_ENABLE_SUB_BUNDLES);
 		noAskPackageInfo = store.getBoolean(Plugin.PREF_NOASK_PACKAGEINFO);
 		noCheckCnf = store.getBoolean(Plugin.PREF_HIDE_INITIALISE_CNF_WIZARD);
+		buildAffectedOnly = store.getBoolean(Plugin.PREF_BUILD_AFFECTED_SUB_BUNDLES_ONLY);
+		rewriteUnchanged = store.getBoolean(Plugin.PREF_REWRITE_UNCHANGED_BUNDLES);
+		parallelBuild = store.getBoolean(Plugin.PREF_PARALLEL_SUB_BUNDLE_BUILD);
+		buildThreads = store.getInt(Plugin.PREF_BUILD_THREADS);
+		buildCache = store.getBoolean(Plugin.PREF_BUILD_CACHE);
+		buildCacheSize = store.getInt(Plugin.PREF_BUILD_CACHE_SIZE);
+		buildCacheDir = store.getString(Plugin.PREF_BUILD_CACHE_DIR);
+		maxProjectModels = store.getInt(Plugin.PREF_MAX_PROJECT_MODELS);
 	}
 }
\ No newline at end of file
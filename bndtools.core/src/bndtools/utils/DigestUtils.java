@@ -0,0 +1,87 @@
+package bndtools.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class DigestUtils {
+
+    private static final String ALGORITHM = "SHA-1";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Feed the full contents of the specified file into the digest.
+     */
+    public static void updateContents(MessageDigest digest, File file) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            updateContents(digest, stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Feed the remaining contents of the stream into the digest. The stream
+     * is NOT closed.
+     */
+    public static void updateContents(MessageDigest digest, InputStream stream) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) != -1)
+            digest.update(buffer, 0, read);
+    }
+
+    /**
+     * Feed the path, size and modification time of the specified file into
+     * the digest. This is much cheaper than hashing the file contents and is
+     * suitable for detecting changes to large numbers of files.
+     */
+    public static void updateMetadata(MessageDigest digest, File file) {
+        update(digest, file.getAbsolutePath());
+        if (file.exists()) {
+            update(digest, Long.toString(file.length()));
+            update(digest, Long.toString(file.lastModified()));
+        } else {
+            update(digest, "<missing>");
+        }
+    }
+
+    public static void update(MessageDigest digest, String string) {
+        try {
+            digest.update(string.getBytes("UTF-8"));
+            digest.update((byte) 0);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String digestContents(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        updateContents(digest, file);
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
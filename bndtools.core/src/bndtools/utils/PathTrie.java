@@ -0,0 +1,128 @@
+package bndtools.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trie of file system paths, keyed by path segment. Lookups cost time
+ * proportional to the depth of the path being looked up, independently of
+ * the number of paths in the trie.
+ */
+public class PathTrie<V> {
+
+    private final Node<V> root = new Node<V>();
+    private int size = 0;
+
+    /**
+     * Associate a value with the specified path, replacing any previous value.
+     */
+    public void put(File path, V value) {
+        Node<V> node = root;
+        for (String segment : segments(path)) {
+            Node<V> child = node.children.get(segment);
+            if (child == null) {
+                child = new Node<V>();
+                node.children.put(segment, child);
+            }
+            node = child;
+        }
+        if (node.value == null)
+            size++;
+        node.value = value;
+    }
+
+    /**
+     * Returns the value associated with exactly the specified path, or
+     * {@code null}.
+     */
+    public V get(File path) {
+        Node<V> node = root;
+        for (String segment : segments(path)) {
+            node = node.children.get(segment);
+            if (node == null)
+                return null;
+        }
+        return node.value;
+    }
+
+    /**
+     * Find the value associated with the longest path that is equal to or an
+     * ancestor of the specified path.
+     *
+     * @return the match, or {@code null} if no ancestor of the path has a
+     *         value.
+     */
+    public Match<V> findLongestPrefix(File path) {
+        List<String> segments = segments(path);
+        Node<V> node = root;
+        V value = root.value;
+        int depth = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            node = node.children.get(segments.get(i));
+            if (node == null)
+                break;
+            if (node.value != null) {
+                value = node.value;
+                depth = i + 1;
+            }
+        }
+        if (value == null)
+            return null;
+
+        StringBuilder remainder = new StringBuilder();
+        for (int i = depth; i < segments.size(); i++) {
+            if (remainder.length() > 0)
+                remainder.append('/');
+            remainder.append(segments.get(i));
+        }
+        return new Match<V>(value, remainder.toString());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static List<String> segments(File path) {
+        String absolute = path.getAbsolutePath();
+        List<String> result = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i <= absolute.length(); i++) {
+            if (i == absolute.length() || absolute.charAt(i) == File.separatorChar) {
+                if (i > start)
+                    result.add(absolute.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return result;
+    }
+
+    private static class Node<V> {
+        final Map<String, Node<V>> children = new HashMap<String, Node<V>>();
+        V value = null;
+    }
+
+    public static class Match<V> {
+        private final V value;
+        private final String remainder;
+
+        Match(V value, String remainder) {
+            this.value = value;
+            this.remainder = remainder;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the part of the path below the matched prefix, with segments
+         * separated by '/', or an empty string if the path matched exactly.
+         */
+        public String getRemainder() {
+            return remainder;
+        }
+    }
+}
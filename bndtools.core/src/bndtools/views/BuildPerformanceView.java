@@ -0,0 +1,297 @@
+package bndtools.views;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TreeViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.jface.viewers.ViewerComparator;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Tree;
+import org.eclipse.swt.widgets.TreeColumn;
+import org.eclipse.ui.part.ViewPart;
+
+import bndtools.Plugin;
+import bndtools.builder.BuildCache;
+import bndtools.builder.BuildMetrics;
+import bndtools.builder.BuildRecord;
+
+/**
+ * Shows the timings recorded by the bnd builder: one row per build, expanding
+ * to the phases of the build and the sub-bundles that were built.
+ */
+public class BuildPerformanceView extends ViewPart {
+
+    private static final String[] COLUMNS = { "Project / Item", "Kind", "Reason", "Time (ms)", "Size (bytes)" };
+    private static final int[] COLUMN_WIDTHS = { 220, 90, 280, 80, 90 };
+    private static final int COLUMN_TIME = 3;
+
+    private Display display;
+    private TreeViewer viewer;
+    private Action clearAction;
+    private Action exportCsvAction;
+    private Action exportJsonAction;
+
+    private final BuildMetrics.Listener metricsListener = new BuildMetrics.Listener() {
+        public void recordAdded(BuildRecord record) {
+            if (display != null && !display.isDisposed()) {
+                display.asyncExec(new Runnable() {
+                    public void run() {
+                        refresh();
+                    }
+                });
+            }
+        }
+    };
+
+    @Override
+    public void createPartControl(Composite parent) {
+        display = parent.getDisplay();
+        Tree tree = new Tree(parent, SWT.FULL_SELECTION | SWT.MULTI);
+        tree.setHeaderVisible(true);
+        tree.setLinesVisible(true);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            TreeColumn column = new TreeColumn(tree, i >= COLUMN_TIME ? SWT.RIGHT : SWT.LEFT);
+            column.setText(COLUMNS[i]);
+            column.setWidth(COLUMN_WIDTHS[i]);
+        }
+
+        viewer = new TreeViewer(tree);
+        viewer.setContentProvider(new BuildRecordContentProvider());
+        viewer.setLabelProvider(new BuildRecordLabelProvider());
+
+        // Clicking the time column sorts the builds by total time, slowest first
+        tree.getColumn(COLUMN_TIME).addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                if (viewer.getComparator() == null)
+                    viewer.setComparator(new SlowestFirstComparator());
+                else
+                    viewer.setComparator(null);
+            }
+        });
+
+        createActions();
+        fillToolBar(getViewSite().getActionBars().getToolBarManager());
+
+        Plugin.getDefault().getBuildMetrics().addListener(metricsListener);
+        refresh();
+    }
+
+    @Override
+    public void dispose() {
+        Plugin.getDefault().getBuildMetrics().removeListener(metricsListener);
+        super.dispose();
+    }
+
+    @Override
+    public void setFocus() {
+        viewer.getControl().setFocus();
+    }
+
+    void refresh() {
+        if (viewer.getControl().isDisposed())
+            return;
+        List<BuildRecord> records = new ArrayList<BuildRecord>(Plugin.getDefault().getBuildMetrics().getRecords());
+        // Most recent first
+        List<BuildRecord> reversed = new ArrayList<BuildRecord>(records.size());
+        for (int i = records.size() - 1; i >= 0; i--)
+            reversed.add(records.get(i));
+        viewer.setInput(reversed);
+
+        long hits = BuildCache.getHitCount();
+        long misses = BuildCache.getMissCount();
+        setContentDescription(hits + misses > 0 ? MessageFormat.format("Build cache: {0} hits, {1} misses", hits, misses) : "");
+    }
+
+    void createActions() {
+        clearAction = new Action() {
+            @Override
+            public void run() {
+                Plugin.getDefault().getBuildMetrics().clear();
+                refresh();
+            }
+        };
+        clearAction.setText("Clear");
+        clearAction.setToolTipText("Clear Build Timings");
+
+        exportCsvAction = new Action() {
+            @Override
+            public void run() {
+                export(false);
+            }
+        };
+        exportCsvAction.setText("Export CSV");
+        exportCsvAction.setToolTipText("Export Build Timings as CSV");
+
+        exportJsonAction = new Action() {
+            @Override
+            public void run() {
+                export(true);
+            }
+        };
+        exportJsonAction.setText("Export JSON");
+        exportJsonAction.setToolTipText("Export Build Timings as JSON");
+    }
+
+    void fillToolBar(IToolBarManager toolBar) {
+        toolBar.add(exportCsvAction);
+        toolBar.add(exportJsonAction);
+        toolBar.add(clearAction);
+    }
+
+    void export(boolean json) {
+        FileDialog dialog = new FileDialog(getViewSite().getShell(), SWT.SAVE);
+        dialog.setFilterExtensions(new String[] { json ? "*.json" : "*.csv" });
+        dialog.setFileName(json ? "bnd-build-timings.json" : "bnd-build-timings.csv");
+        String path = dialog.open();
+        if (path == null)
+            return;
+
+        List<BuildRecord> records = Plugin.getDefault().getBuildMetrics().getRecords();
+        try {
+            Writer writer = new FileWriter(new File(path));
+            try {
+                if (json)
+                    BuildMetrics.writeJson(records, writer);
+                else
+                    BuildMetrics.writeCsv(records, writer);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Plugin.logError("Error exporting build timings", e);
+            MessageDialog.openError(getViewSite().getShell(), "Export Build Timings", "Error exporting build timings: " + e.getMessage());
+        }
+    }
+
+    private static class PhaseRow {
+        final String name;
+        final long nanos;
+
+        PhaseRow(String name, long nanos) {
+            this.name = name;
+            this.nanos = nanos;
+        }
+    }
+
+    private static class BuildRecordContentProvider implements ITreeContentProvider {
+        public Object[] getElements(Object inputElement) {
+            return ((List<?>) inputElement).toArray();
+        }
+
+        public Object[] getChildren(Object parentElement) {
+            if (!(parentElement instanceof BuildRecord))
+                return new Object[0];
+            BuildRecord record = (BuildRecord) parentElement;
+            List<Object> children = new ArrayList<Object>();
+            for (Entry<String, Long> phase : record.getPhases().entrySet()) {
+                children.add(new PhaseRow(phase.getKey(), phase.getValue()));
+            }
+            children.addAll(record.getSubBundles());
+            return children.toArray();
+        }
+
+        public Object getParent(Object element) {
+            return null;
+        }
+
+        public boolean hasChildren(Object element) {
+            return element instanceof BuildRecord;
+        }
+
+        public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+        }
+
+        public void dispose() {
+        }
+    }
+
+    private static class BuildRecordLabelProvider extends LabelProvider implements ITableLabelProvider {
+        private final DateFormat timeFormat = DateFormat.getTimeInstance(DateFormat.MEDIUM);
+
+        public Image getColumnImage(Object element, int columnIndex) {
+            return null;
+        }
+
+        public String getColumnText(Object element, int columnIndex) {
+            if (element instanceof BuildRecord) {
+                BuildRecord record = (BuildRecord) element;
+                switch (columnIndex) {
+                case 0:
+                    return record.getProject() + " (" + timeFormat.format(new Date(record.getTimestamp())) + ")";
+                case 1:
+                    return record.getKind();
+                case 2:
+                    return record.getReason();
+                case 3:
+                    return BuildMetrics.toMillis(record.getTotalNanos());
+                case 4:
+                    long size = 0;
+                    for (BuildRecord.SubBundleMetric subBundle : record.getSubBundles())
+                        size += subBundle.getSize();
+                    return size > 0 ? Long.toString(size) : "";
+                }
+            } else if (element instanceof PhaseRow) {
+                PhaseRow phase = (PhaseRow) element;
+                switch (columnIndex) {
+                case 0:
+                    return phase.name;
+                case 1:
+                    return "phase";
+                case 3:
+                    return BuildMetrics.toMillis(phase.nanos);
+                }
+            } else if (element instanceof BuildRecord.SubBundleMetric) {
+                BuildRecord.SubBundleMetric subBundle = (BuildRecord.SubBundleMetric) element;
+                switch (columnIndex) {
+                case 0:
+                    return subBundle.getBsn();
+                case 1:
+                    return "bundle";
+                case 2:
+                    String status = subBundle.isChanged() ? "rewritten" : "unchanged";
+                    return subBundle.isCached() ? status + ", from cache" : status;
+                case 3:
+                    return BuildMetrics.toMillis(subBundle.getBuildNanos());
+                case 4:
+                    return Long.toString(subBundle.getSize());
+                }
+            }
+            return "";
+        }
+    }
+
+    private static class SlowestFirstComparator extends ViewerComparator {
+        @Override
+        public int compare(Viewer viewer, Object e1, Object e2) {
+            if (e1 instanceof BuildRecord && e2 instanceof BuildRecord) {
+                long t1 = ((BuildRecord) e1).getTotalNanos();
+                long t2 = ((BuildRecord) e2).getTotalNanos();
+                return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+            // Keep the order of phases and sub-bundles
+            return 0;
+        }
+    }
+}
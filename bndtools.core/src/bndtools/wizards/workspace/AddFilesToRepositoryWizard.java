@@ -79,6 +79,7 @@ public class AddFilesToRepositoryWizard extends Wizard {
 
             try {
                 File newFile = repository.put(jar);
+                Plugin.getDefault().getCentral().repositoryFilesChanged(Collections.singleton(newFile));
 
                 RefreshFileJob refreshJob = new RefreshFileJob(newFile);
                 if(refreshJob.isFileInWorkspace())
@@ -3,6 +3,7 @@ package bndtools.wizards.workspace;
 import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -10,6 +11,7 @@ import java.util.Set;
 
 import org.apache.felix.bundlerepository.Capability;
 import org.apache.felix.bundlerepository.Reason;
+import org.apache.felix.bundlerepository.Repository;
 import org.apache.felix.bundlerepository.RepositoryAdmin;
 import org.apache.felix.bundlerepository.Resolver;
 import org.apache.felix.bundlerepository.Resource;
@@ -38,6 +40,7 @@ import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Table;
 
 import bndtools.Plugin;
+import bndtools.bindex.BinaryIndexRepository;
 import bndtools.bindex.FelixGlobalCapabilityGenerator;
 import bndtools.bindex.IRepositoryIndexProvider;
 import bndtools.utils.Requestor;
@@ -153,6 +156,22 @@ public class DependentResourcesWizardPage extends WizardPage {
         modifiedSelection = true;
     }
 
+    /**
+     * Create a resolver over the repositories known to the repository admin
+     * and the specified repositories, which were loaded without it.
+     */
+    Resolver createResolver(List<Repository> loaded) {
+        if (loaded.isEmpty())
+            return repoAdmin.resolver();
+
+        List<Repository> repositories = new ArrayList<Repository>();
+        repositories.add(repoAdmin.getSystemRepository());
+        repositories.add(repoAdmin.getLocalRepository());
+        repositories.addAll(Arrays.asList(repoAdmin.listRepositories()));
+        repositories.addAll(loaded);
+        return repoAdmin.resolver(repositories.toArray(new Repository[repositories.size()]));
+    }
+
     void refreshBundles() {
         required.clear();
         availableOptional.clear();
@@ -164,15 +183,20 @@ public class DependentResourcesWizardPage extends WizardPage {
                 SubMonitor progress = SubMonitor.convert(monitor, "", work);
 
                 try {
-                    // Add indexes
+                    // Add indexes, using their binary form if available
+                    List<Repository> loaded = new ArrayList<Repository>();
                     for (IRepositoryIndexProvider provider : indexProviders) {
                         provider.initialise(progress.newChild(1, SubMonitor.SUPPRESS_NONE));
-                        repoAdmin.addRepository(provider.getUrl().toExternalForm());
+                        Repository repository = BinaryIndexRepository.load(provider.getUrl());
+                        if (repository != null)
+                            loaded.add(repository);
+                        else
+                            repoAdmin.addRepository(provider.getUrl().toExternalForm());
                         --work;
                     }
 
                     // Create resolver and add selected resources
-                    resolver = repoAdmin.resolver();
+                    resolver = createResolver(loaded);
                     selected.addAll(selectedRequestor.request(progress.newChild(1, SubMonitor.SUPPRESS_NONE)));
                     for (Resource resource : selected) {
                         resolver.add(resource);
@@ -16,6 +16,7 @@ import aQute.bnd.build.Container;
 import aQute.bnd.build.Container.TYPE;
 import aQute.bnd.build.Project;
 import aQute.bnd.service.RepositoryPlugin.Strategy;
+import bndtools.bindex.BinaryIndexRepository;
 import bndtools.bindex.IRepositoryIndexProvider;
 import bndtools.model.clauses.VersionedClause;
 import bndtools.utils.Requestor;
@@ -37,7 +38,9 @@ public class RepositoryResourceRequestor implements Requestor<Collection<? exten
     void processIndex(IRepositoryIndexProvider indexProvider, Map<String, Resource> urisToResources, IProgressMonitor monitor) throws Exception {
         try {
             indexProvider.initialise(monitor);
-            Repository repo = repoAdmin.addRepository(indexProvider.getUrl().toExternalForm());
+            Repository repo = BinaryIndexRepository.load(indexProvider.getUrl());
+            if (repo == null)
+                repo = repoAdmin.addRepository(indexProvider.getUrl().toExternalForm());
 
             Resource[] resources = repo.getResources();
             for (Resource resource : resources) {
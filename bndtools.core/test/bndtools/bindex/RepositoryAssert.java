@@ -0,0 +1,76 @@
+package bndtools.bindex;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Repository;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+
+/**
+ * Assertions on repositories as Felix reads them.
+ */
+class RepositoryAssert extends Assert {
+
+    static void assertRepositoryEquals(Repository expected, Repository actual) {
+        assertRepositoryEquals(expected, actual, true);
+    }
+
+    /**
+     * Assert that the repositories are equal except for the whitespace in
+     * text, which {@code Tag.print} pads and wraps.
+     */
+    static void assertRepositoryEquivalent(Repository expected, Repository actual) {
+        assertRepositoryEquals(expected, actual, false);
+    }
+
+    private static void assertRepositoryEquals(Repository expected, Repository actual, boolean exactText) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+        assertEquals(expected.getResources().length, actual.getResources().length);
+        for (int i = 0; i < expected.getResources().length; i++) {
+            assertResourceEquals(expected.getResources()[i], actual.getResources()[i], exactText);
+        }
+    }
+
+    private static void assertResourceEquals(Resource expected, Resource actual, boolean exactText) {
+        assertMapEquals(expected.getProperties(), actual.getProperties(), exactText);
+        assertEquals(Arrays.asList(expected.getCategories()), Arrays.asList(actual.getCategories()));
+
+        assertEquals(expected.getCapabilities().length, actual.getCapabilities().length);
+        for (int i = 0; i < expected.getCapabilities().length; i++) {
+            Capability expectedCapability = expected.getCapabilities()[i];
+            Capability actualCapability = actual.getCapabilities()[i];
+            assertEquals(expectedCapability.getName(), actualCapability.getName());
+            assertEquals(expectedCapability.getPropertiesAsMap(), actualCapability.getPropertiesAsMap());
+        }
+
+        assertEquals(expected.getRequirements().length, actual.getRequirements().length);
+        for (int i = 0; i < expected.getRequirements().length; i++) {
+            Requirement expectedRequirement = expected.getRequirements()[i];
+            Requirement actualRequirement = actual.getRequirements()[i];
+            assertEquals(expectedRequirement.getName(), actualRequirement.getName());
+            assertEquals(expectedRequirement.getFilter(), actualRequirement.getFilter());
+            assertEquals(expectedRequirement.isExtend(), actualRequirement.isExtend());
+            assertEquals(expectedRequirement.isMultiple(), actualRequirement.isMultiple());
+            assertEquals(expectedRequirement.isOptional(), actualRequirement.isOptional());
+            assertEquals(text(expectedRequirement.getComment(), exactText), text(actualRequirement.getComment(), exactText));
+        }
+    }
+
+    private static void assertMapEquals(Map<?, ?> expected, Map<?, ?> actual, boolean exactText) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Object key : expected.keySet()) {
+            assertEquals(String.valueOf(key), text(expected.get(key), exactText), text(actual.get(key), exactText));
+        }
+    }
+
+    private static Object text(Object value, boolean exact) {
+        if (exact || !(value instanceof String))
+            return value;
+        return ((String) value).trim().replaceAll("\\s+", " ");
+    }
+}
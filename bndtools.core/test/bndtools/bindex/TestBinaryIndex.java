@@ -0,0 +1,127 @@
+package bndtools.bindex;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Repository;
+import org.apache.felix.bundlerepository.impl.DataModelHelperImpl;
+import org.codehaus.stax2.XMLStreamWriter2;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.osgi.impl.bundle.obr.resource.BundleInfo;
+import org.osgi.impl.bundle.obr.resource.RepositoryImpl;
+import org.osgi.impl.bundle.obr.resource.ResourceImpl;
+import org.osgi.service.obr.Resource;
+
+import com.ctc.wstx.stax.WstxInputFactory;
+
+public class TestBinaryIndex extends TestCase {
+
+    private File dir;
+    private File xmlFile;
+    private TestIndexer indexer;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("binaryindex", "");
+        dir.delete();
+        dir.mkdirs();
+        xmlFile = new File(dir, "repository.xml");
+        indexer = new TestIndexer();
+        indexer.setOutputFile(xmlFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    public void testBinaryIndexMatchesXml() throws Exception {
+        indexer.writeIndex(createResources(), xmlFile);
+
+        URL url = xmlFile.toURI().toURL();
+        DataModelHelperImpl helper = new DataModelHelperImpl();
+        Repository expected = helper.repository(url);
+        Repository actual = BinaryIndexRepository.load(url);
+        assertNotNull(actual);
+
+        assertEquals(3, expected.getResources().length);
+        RepositoryAssert.assertRepositoryEquals(expected, actual);
+        for (int i = 0; i < expected.getResources().length; i++) {
+            assertEquals(helper.writeResource(expected.getResources()[i]), helper.writeResource(actual.getResources()[i]));
+        }
+    }
+
+    public void testStaleWhenContentsChange() throws Exception {
+        indexer.writeIndex(createResources(), xmlFile);
+        assertNotNull(BinaryIndex.open(xmlFile));
+
+        // Same size and timestamp, different contents
+        long lastModified = xmlFile.lastModified();
+        RandomAccessFile file = new RandomAccessFile(xmlFile, "rw");
+        try {
+            String xml = new String(readAll(file), "UTF-8");
+            int index = xml.indexOf("LocalRepo");
+            file.seek(index);
+            file.write('l');
+        } finally {
+            file.close();
+        }
+        xmlFile.setLastModified(lastModified);
+
+        assertNull(BinaryIndex.open(xmlFile));
+    }
+
+    public void testNoBinaryIndexForTemporaryFile() throws Exception {
+        File temp = new File(dir, "temp.xml");
+        indexer.writeIndex(createResources(), temp);
+
+        assertTrue(temp.isFile());
+        assertFalse(BinaryIndex.getBinaryFile(temp).exists());
+        assertNull(BinaryIndex.open(temp));
+    }
+
+    private List<Resource> createResources() throws Exception {
+        RepositoryImpl bindex = new RepositoryImpl(xmlFile.toURI().toURL());
+        List<Resource> resources = new ArrayList<Resource>();
+        for (Class<?> clazz : new Class<?>[] { DataModelHelperImpl.class, WstxInputFactory.class, XMLStreamWriter2.class }) {
+            File jar = new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+            ResourceImpl resource = new BundleInfo(bindex, jar).build();
+            resource.addCategory("test");
+            resources.add(resource);
+        }
+
+        // Restored from the cache, with only its XML
+        Resource cached = resources.get(2);
+        resources.set(2, new CachedResource(cached.getSymbolicName(), cached.getURL(), RepositoryIndexWriter.toFragment(cached)));
+        return resources;
+    }
+
+    private static byte[] readAll(RandomAccessFile file) throws Exception {
+        byte[] bytes = new byte[(int) file.length()];
+        file.readFully(bytes);
+        return bytes;
+    }
+
+    private static class TestIndexer extends AbstractIndexer {
+        @Override
+        protected String getTaskLabel() {
+            return "Test";
+        }
+
+        @Override
+        protected void generateResources(RepositoryImpl bindex, List<Resource> result, IProgressMonitor monitor) {
+        }
+
+        @Override
+        public String getCategory() {
+            return "test";
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package bndtools.bindex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Repository;
+import org.apache.felix.bundlerepository.impl.DataModelHelperImpl;
+import org.codehaus.stax2.XMLStreamWriter2;
+import org.osgi.impl.bundle.obr.resource.BundleInfo;
+import org.osgi.impl.bundle.obr.resource.RepositoryImpl;
+import org.osgi.impl.bundle.obr.resource.ResourceImpl;
+import org.osgi.impl.bundle.obr.resource.Tag;
+import org.osgi.impl.bundle.obr.resource.VersionRange;
+import org.osgi.service.obr.Resource;
+
+import com.ctc.wstx.stax.WstxInputFactory;
+
+public class TestRepositoryIndexWriter extends TestCase {
+
+    private static final String NAME = "LocalRepo";
+
+    public void testSameRepositoryAsTagPrint() throws Exception {
+        List<Resource> resources = createResources();
+        Date lastModified = new Date();
+
+        Repository expected = parse(printTags(resources, lastModified));
+        Repository actual = parse(write(resources, lastModified));
+
+        assertEquals(resources.size(), expected.getResources().length);
+        RepositoryAssert.assertRepositoryEquivalent(expected, actual);
+    }
+
+    public void testCachedResourceWrittenAsFragment() throws Exception {
+        List<Resource> resources = createResources();
+        List<Resource> cached = new ArrayList<Resource>();
+        for (Resource resource : resources)
+            cached.add(new CachedResource(resource.getSymbolicName(), resource.getURL(), RepositoryIndexWriter.toFragment(resource)));
+        Date lastModified = new Date();
+
+        Repository expected = parse(write(resources, lastModified));
+        Repository actual = parse(write(cached, lastModified));
+
+        RepositoryAssert.assertRepositoryEquals(expected, actual);
+    }
+
+    /**
+     * Tag.print escapes text twice and does not escape quotes in attributes,
+     * so these values did not survive the old format.
+     */
+    public void testSpecialCharacters() throws Exception {
+        String description = "Less < than & \"quoted\" 'text' > caf\u00e9";
+        String presentationName = "Example \"bundle\" \u2014 <1.0>";
+        RepositoryImpl bindex = new RepositoryImpl(new File("repository.xml").getAbsoluteFile().toURI().toURL());
+        ResourceImpl resource = new ResourceImpl(bindex, "org.example", new VersionRange("1.0.0"));
+        resource.setURL(new File("org.example.jar").getAbsoluteFile().toURI().toURL());
+        resource.setDescription(description);
+        resource.setPresentationName(presentationName);
+
+        Repository repository = parse(write(Collections.<Resource> singletonList(resource), new Date()));
+        assertEquals(1, repository.getResources().length);
+        assertEquals(description, repository.getResources()[0].getProperties().get("description"));
+        assertEquals(presentationName, repository.getResources()[0].getPresentationName());
+    }
+
+    public void testLastModifiedFormat() {
+        Tag tag = new Tag("repository");
+        Date date = new Date();
+        tag.addAttribute("lastmodified", date);
+        assertEquals(tag.getAttribute("lastmodified"), RepositoryIndexWriter.formatLastModified(date));
+    }
+
+    /**
+     * Write the repository the way it was written before the index was
+     * streamed.
+     */
+    private static byte[] printTags(List<Resource> resources, Date lastModified) throws Exception {
+        Tag repository = new Tag("repository");
+        repository.addAttribute("lastmodified", lastModified);
+        repository.addAttribute("name", NAME);
+        for (Resource resource : resources)
+            repository.addContent(ResourceImpl.toXML(resource));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(bytes, "UTF-8"));
+        repository.print(0, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] write(List<Resource> resources, Date lastModified) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RepositoryIndexWriter writer = new RepositoryIndexWriter(bytes);
+        writer.startRepository(NAME, lastModified);
+        for (Resource resource : resources)
+            writer.writeResource(resource);
+        writer.endRepository();
+        return bytes.toByteArray();
+    }
+
+    private static Repository parse(byte[] xml) throws Exception {
+        return new DataModelHelperImpl().repository(new ByteArrayInputStream(xml));
+    }
+
+    private static List<Resource> createResources() throws Exception {
+        RepositoryImpl bindex = new RepositoryImpl(new File("repository.xml").getAbsoluteFile().toURI().toURL());
+        List<Resource> resources = new ArrayList<Resource>();
+        for (Class<?> clazz : new Class<?>[] { DataModelHelperImpl.class, WstxInputFactory.class, XMLStreamWriter2.class }) {
+            File jar = new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+            resources.add(new BundleInfo(bindex, jar).build());
+        }
+
+        ResourceImpl resource = new ResourceImpl(bindex, "org.example", new VersionRange("1.0.0"));
+        resource.setURL(new File("org.example.jar").getAbsoluteFile().toURI().toURL());
+        resource.setDescription("A description that is long enough to be wrapped over several lines by Tag.print");
+        resource.addCategory("test");
+        resources.add(resource);
+        return resources;
+    }
+}
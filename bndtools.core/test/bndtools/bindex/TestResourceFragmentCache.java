@@ -0,0 +1,161 @@
+package bndtools.bindex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.osgi.impl.bundle.obr.resource.RepositoryImpl;
+import org.osgi.impl.bundle.obr.resource.ResourceImpl;
+import org.osgi.impl.bundle.obr.resource.VersionRange;
+import org.osgi.service.obr.Resource;
+
+public class TestResourceFragmentCache extends TestCase {
+
+    private File dir;
+    private File cacheFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("fragmentcache", "");
+        dir.delete();
+        dir.mkdirs();
+        cacheFile = new File(dir, "cache");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        File bundle = createBundle("a.jar", "contents", 1000);
+        Resource resource = createResource("org.example.a", bundle);
+        ResourceFragmentCache cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        cache.put(bundle, resource);
+        cache.save();
+
+        cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        Resource cached = cache.get(bundle);
+        assertTrue(cached instanceof CachedResource);
+        assertEquals("org.example.a", cached.getSymbolicName());
+        assertEquals(bundle.toURI().toURL(), cached.getURL());
+        assertEquals(RepositoryIndexWriter.toFragment(resource), ((CachedResource) cached).getFragment());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    public void testChangedFileIsNotValid() throws Exception {
+        File bundle = createBundle("a.jar", "contents", 1000);
+        saveCache(bundle);
+
+        createBundle("a.jar", "changed contents", 1000);
+        ResourceFragmentCache cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        assertNull(cache.get(bundle));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testTouchedFileWithSameContentsIsValid() throws Exception {
+        File bundle = createBundle("a.jar", "contents", 1000);
+        saveCache(bundle);
+
+        bundle.setLastModified(5000);
+        ResourceFragmentCache cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        assertNotNull(cache.get(bundle));
+        cache.save();
+
+        // The new timestamp is saved with the entry
+        cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        assertNotNull(cache.get(bundle));
+    }
+
+    public void testUnusedEntriesAreNotSaved() throws Exception {
+        File bundleA = createBundle("a.jar", "contents", 1000);
+        File bundleB = createBundle("b.jar", "contents", 1000);
+        saveCache(bundleA, bundleB);
+
+        ResourceFragmentCache cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        assertNotNull(cache.get(bundleA));
+        cache.save();
+
+        cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        assertEquals(1, cache.getAll().size());
+        assertNull(cache.get(bundleB));
+    }
+
+    public void testGetAllKeepsAllEntries() throws Exception {
+        File bundleA = createBundle("a.jar", "contents", 1000);
+        File bundleB = createBundle("b.jar", "contents", 1000);
+        saveCache(bundleA, bundleB);
+
+        ResourceFragmentCache cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        assertEquals(2, cache.getAll().size());
+        cache.save();
+
+        cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        assertEquals(2, cache.getAll().size());
+    }
+
+    public void testRemove() throws Exception {
+        File bundle = createBundle("a.jar", "contents", 1000);
+        saveCache(bundle);
+
+        ResourceFragmentCache cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        assertTrue(cache.remove(bundle));
+        assertFalse(cache.remove(bundle));
+        assertTrue(cache.isEmpty());
+    }
+
+    public void testCorruptCacheIsEmpty() throws Exception {
+        FileOutputStream out = new FileOutputStream(cacheFile);
+        try {
+            out.write(new byte[] { 0, 0, 0, 2, 0, 0, 0, 5, 1 });
+        } finally {
+            out.close();
+        }
+
+        ResourceFragmentCache cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        assertTrue(cache.isEmpty());
+    }
+
+    private void saveCache(File... bundles) throws Exception {
+        ResourceFragmentCache cache = new ResourceFragmentCache(cacheFile);
+        cache.load();
+        for (File bundle : bundles)
+            cache.put(bundle, createResource("org.example." + bundle.getName(), bundle));
+        cache.save();
+    }
+
+    private File createBundle(String name, String contents, long lastModified) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        file.setLastModified(lastModified);
+        return file;
+    }
+
+    private Resource createResource(String bsn, File bundle) throws Exception {
+        ResourceImpl resource = new ResourceImpl(new RepositoryImpl(dir.toURI().toURL()), bsn, new VersionRange("1.0.0"));
+        resource.setURL(bundle.toURI().toURL());
+        resource.addCategory("test");
+        return resource;
+    }
+}
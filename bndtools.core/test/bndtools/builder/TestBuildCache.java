@@ -0,0 +1,111 @@
+package bndtools.builder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+import aQute.lib.osgi.Builder;
+
+public class TestBuildCache extends TestCase {
+
+    private File workspace;
+
+    @Override
+    protected void setUp() throws Exception {
+        workspace = File.createTempFile("buildcache", "");
+        workspace.delete();
+        workspace.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(workspace);
+    }
+
+    public void testKeyDoesNotDependOnLocation() throws Exception {
+        File project1 = createProject("p1");
+        File project2 = createProject("p2");
+
+        assertEquals(computeKey(project1, false), computeKey(project2, false));
+    }
+
+    public void testSourceEditChangesKeyWhenSourcesIncluded() throws Exception {
+        File project = createProject("p");
+        String before = computeKey(project, true);
+
+        write(new File(project, "src/org/example/Foo.java"), "// A comment\npackage org.example; class Foo {}", 2000);
+        assertFalse(before.equals(computeKey(project, true)));
+    }
+
+    public void testSourceEditIgnoredWhenSourcesNotIncluded() throws Exception {
+        File project = createProject("p");
+        String before = computeKey(project, false);
+
+        write(new File(project, "src/org/example/Foo.java"), "// A comment\npackage org.example; class Foo {}", 2000);
+        assertEquals(before, computeKey(project, false));
+    }
+
+    public void testIncludedResourceEditChangesKey() throws Exception {
+        File project = createProject("p");
+        String before = computeKey(project, false);
+
+        write(new File(project, "resources/readme.txt"), "Changed", 2000);
+        assertFalse(before.equals(computeKey(project, false)));
+    }
+
+    public void testIncludedPath() {
+        assertEquals("res/a.txt", BuildCache.getIncludedPath("res/a.txt"));
+        assertEquals("res/a.txt", BuildCache.getIncludedPath("{res/a.txt}"));
+        assertEquals("res/a.txt", BuildCache.getIncludedPath("b.txt=res/a.txt"));
+        assertEquals("res/a.txt", BuildCache.getIncludedPath("{b.txt = res/a.txt}"));
+        assertEquals("lib/x.jar", BuildCache.getIncludedPath("@lib/x.jar"));
+        assertEquals("lib/x.jar", BuildCache.getIncludedPath("@lib/x.jar!/META-INF/.*"));
+        assertEquals("res/a.txt", BuildCache.getIncludedPath("res/a.txt~"));
+    }
+
+    private File createProject(String name) throws IOException {
+        File project = new File(workspace, name);
+        write(new File(project, "src/org/example/Foo.java"), "package org.example; class Foo {}", 1000);
+        write(new File(project, "bin/org/example/Foo.class"), "class", 1000);
+        write(new File(project, "resources/readme.txt"), "Readme", 1000);
+        return project;
+    }
+
+    private String computeKey(File project, boolean sources) throws Exception {
+        Builder builder = new Builder();
+        try {
+            builder.setBase(project);
+            builder.setProperty("Bundle-SymbolicName", "org.example");
+            builder.setProperty("Private-Package", "org.example");
+            builder.setProperty("Include-Resource", "resources/readme.txt, {doc=resources}");
+            builder.setProperty("-sourcepath", new File(project, "src").getAbsolutePath());
+            builder.setProperty("-sources", Boolean.toString(sources));
+            builder.addClasspath(new File(project, "bin"));
+            return BuildCache.computeKey(builder, workspace, new HashMap<File, String>());
+        } finally {
+            builder.close();
+        }
+    }
+
+    private static void write(File file, String content, long lastModified) throws IOException {
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        file.setLastModified(lastModified);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,86 @@
+package bndtools.builder;
+
+import java.io.File;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+import aQute.lib.osgi.EmbeddedResource;
+import aQute.lib.osgi.Jar;
+
+public class TestJarDigests extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("jardigests", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    public void testDigestIgnoresTimestamps() throws Exception {
+        String digest1 = JarDigests.compute(createJar("Hello", 1000, "20100101000000"));
+        String digest2 = JarDigests.compute(createJar("Hello", 2000, "20100102000000"));
+        assertEquals(digest1, digest2);
+    }
+
+    public void testDigestCoversContents() throws Exception {
+        String digest1 = JarDigests.compute(createJar("Hello", 1000, "20100101000000"));
+        String digest2 = JarDigests.compute(createJar("Goodbye", 1000, "20100101000000"));
+        assertFalse(digest1.equals(digest2));
+    }
+
+    public void testDigestCoversManifest() throws Exception {
+        Jar jar = createJar("Hello", 1000, "20100101000000");
+        String digest1 = JarDigests.compute(jar);
+        jar.getManifest().getMainAttributes().putValue("Bundle-Version", "2.0.0");
+        assertFalse(digest1.equals(JarDigests.compute(jar)));
+    }
+
+    public void testFileDigestMatchesWrittenJar() throws Exception {
+        Jar jar = createJar("Hello", 1000, "20100101000000");
+        File file = new File(dir, "test.jar");
+        jar.write(file);
+
+        assertEquals(JarDigests.compute(jar), JarDigests.getDigest(file));
+    }
+
+    public void testFileDigestUpdatedWhenFileChanges() throws Exception {
+        File file = new File(dir, "test.jar");
+        createJar("Hello", 1000, "20100101000000").write(file);
+        file.setLastModified(10000);
+        String before = JarDigests.getDigest(file);
+
+        Jar changed = createJar("Hello, world", 1000, "20100101000000");
+        changed.write(file);
+        file.setLastModified(20000);
+        assertEquals(JarDigests.compute(changed), JarDigests.getDigest(file));
+        assertFalse(before.equals(JarDigests.getDigest(file)));
+    }
+
+    public void testMissingFileHasNoDigest() {
+        assertNull(JarDigests.getDigest(new File(dir, "missing.jar")));
+    }
+
+    private static Jar createJar(String content, long lastModified, String bndLastModified) throws Exception {
+        Manifest manifest = new Manifest();
+        Attributes attribs = manifest.getMainAttributes();
+        attribs.putValue("Manifest-Version", "1.0");
+        attribs.putValue("Bundle-SymbolicName", "org.example");
+        attribs.putValue("Bundle-Version", "1.0.0");
+        attribs.putValue("Bnd-LastModified", bndLastModified);
+
+        Jar jar = new Jar("org.example");
+        jar.setManifest(manifest);
+        jar.putResource("org/example/readme.txt", new EmbeddedResource(content.getBytes("UTF-8"), lastModified));
+        return jar;
+    }
+}
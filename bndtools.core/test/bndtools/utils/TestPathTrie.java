@@ -0,0 +1,46 @@
+package bndtools.utils;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class TestPathTrie extends TestCase {
+
+    private final File base = new File("/tmp/project").getAbsoluteFile();
+
+    public void testExactLookup() {
+        PathTrie<String> trie = new PathTrie<String>();
+        trie.put(new File(base, "bin"), "bin");
+
+        assertEquals("bin", trie.get(new File(base, "bin")));
+        assertNull(trie.get(base));
+        assertNull(trie.get(new File(base, "bin/org")));
+        assertEquals(1, trie.size());
+    }
+
+    public void testLongestPrefix() {
+        PathTrie<String> trie = new PathTrie<String>();
+        trie.put(new File(base, "bin"), "bin");
+        trie.put(new File(base, "bin/generated"), "generated");
+
+        PathTrie.Match<String> match = trie.findLongestPrefix(new File(base, "bin/org/example/Foo.class"));
+        assertEquals("bin", match.getValue());
+        assertEquals("org/example/Foo.class", match.getRemainder());
+
+        match = trie.findLongestPrefix(new File(base, "bin/generated/org/Bar.class"));
+        assertEquals("generated", match.getValue());
+        assertEquals("org/Bar.class", match.getRemainder());
+
+        match = trie.findLongestPrefix(new File(base, "bin"));
+        assertEquals("bin", match.getValue());
+        assertEquals("", match.getRemainder());
+    }
+
+    public void testNoMatch() {
+        PathTrie<String> trie = new PathTrie<String>();
+        trie.put(new File(base, "bin"), "bin");
+
+        assertNull(trie.findLongestPrefix(new File(base, "src/org/example/Foo.java")));
+        assertNull(trie.findLongestPrefix(new File(base, "binary/Foo.class")));
+    }
+}